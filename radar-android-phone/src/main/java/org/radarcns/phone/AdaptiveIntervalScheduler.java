@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Computes a location request interval that keeps the distance travelled between fixes roughly
+ * constant. The interval is the target distance divided by the recent speed, bounded by a
+ * minimum and maximum interval. The speed is the speed reported by the fix, or otherwise the
+ * displacement since the previous fix that exceeds the accuracy of both fixes. Fixes that are
+ * less accurate than the target distance cannot resolve it, so their accuracy is used as
+ * distance instead. The interval only changes if the target interval differs meaningfully from
+ * the current one, so location requests are not reissued for every fix. This class is not
+ * thread-safe.
+ */
+class AdaptiveIntervalScheduler {
+    /** Minimum relative change of the target interval before the interval is changed. */
+    private static final double CHANGE_THRESHOLD = 0.25;
+    /** Weight of a new speed measurement in the smoothed speed. */
+    private static final double SPEED_WEIGHT = 0.5;
+
+    private final double distance;
+    private final long minimumInterval;
+    private final long maximumInterval;
+    private long interval;
+    private double speed;
+    private boolean hasSpeed;
+    private boolean hasPrevious;
+    private long previousTime;
+    private double previousLatitude;
+    private double previousLongitude;
+    private float previousAccuracy;
+
+    /**
+     * Scheduler with given bounds. The interval starts at the maximum interval.
+     * @param distance target distance between fixes in meters.
+     * @param minimumInterval minimum interval in seconds.
+     * @param maximumInterval maximum interval in seconds.
+     */
+    AdaptiveIntervalScheduler(double distance, long minimumInterval, long maximumInterval) {
+        if (!(distance > 0d) || minimumInterval <= 0L || maximumInterval < minimumInterval) {
+            throw new IllegalArgumentException("Adaptive distance and intervals must be positive,"
+                    + " and the maximum interval may not be smaller than the minimum interval");
+        }
+        this.distance = distance;
+        this.minimumInterval = minimumInterval;
+        this.maximumInterval = maximumInterval;
+        this.interval = maximumInterval;
+    }
+
+    /**
+     * Process a location fix.
+     * @param time time of the fix in milliseconds.
+     * @param latitude latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param accuracy accuracy radius in meters, or NaN if unknown.
+     * @param reportedSpeed speed in m/s reported by the fix, or NaN if unknown.
+     * @return whether the interval changed.
+     */
+    boolean onFix(long time, double latitude, double longitude, float accuracy,
+            float reportedSpeed) {
+        float margin = accuracy > 0f ? accuracy : 0f;
+        double measuredSpeed = Double.NaN;
+        if (reportedSpeed >= 0f) {
+            measuredSpeed = reportedSpeed;
+        } else if (hasPrevious && time > previousTime) {
+            double displacement = StayPointDetector.distance(previousLatitude, previousLongitude,
+                    latitude, longitude) - margin - previousAccuracy;
+            measuredSpeed = Math.max(displacement, 0d) * 1000d / (time - previousTime);
+        }
+        if (!hasPrevious || time > previousTime) {
+            hasPrevious = true;
+            previousTime = time;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+            previousAccuracy = margin;
+        }
+        if (Double.isNaN(measuredSpeed)) {
+            return false;
+        }
+        if (hasSpeed) {
+            speed += (measuredSpeed - speed) * SPEED_WEIGHT;
+        } else {
+            speed = measuredSpeed;
+            hasSpeed = true;
+        }
+
+        long target = targetInterval(Math.max(distance, margin), speed);
+        if (Math.abs(target - interval) <= interval * CHANGE_THRESHOLD) {
+            return false;
+        }
+        interval = target;
+        return true;
+    }
+
+    /** Interval to travel a distance at a speed, within the bounds. */
+    private long targetInterval(double distance, double speed) {
+        double seconds = distance / speed;
+        if (!(seconds < maximumInterval)) {
+            return maximumInterval;
+        } else if (seconds < minimumInterval) {
+            return minimumInterval;
+        } else {
+            return Math.round(seconds);
+        }
+    }
+
+    /** Current interval in seconds. */
+    long getInterval() {
+        return interval;
+    }
+
+    /** Smoothed speed in m/s. */
+    double getSpeed() {
+        return speed;
+    }
+}
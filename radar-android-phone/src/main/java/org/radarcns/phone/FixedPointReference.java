@@ -0,0 +1,287 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import java.math.BigDecimal;
+
+/**
+ * Reference value to compute exact relative coordinates with. The reference is stored as a
+ * fixed-point decimal, a long with a decimal scale. The difference between a value and the
+ * reference is the same as {@code BigDecimal.valueOf(value).subtract(reference).doubleValue()},
+ * to the last bit, but it is computed with long arithmetic from the bits of the value, without
+ * allocating a string or a BigDecimal. Values that do not fit in a long with at most {@value #MAX_SCALE} decimals are computed with
+ * BigDecimal instead. This class is not thread-safe.
+ */
+class FixedPointReference {
+    private static final int MAX_SCALE = 18;
+    private static final long[] POW10 = new long[MAX_SCALE + 1];
+    static {
+        POW10[0] = 1L;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POW10[i] = POW10[i - 1] * 10L;
+        }
+    }
+    private static final long OVERFLOW = Long.MIN_VALUE;
+    private static final long SIGNIFICAND_MASK = (1L << 52) - 1L;
+
+    private final BigDecimal decimal;
+    private final boolean isFixedPoint;
+    private final long unscaled;
+    private final int scale;
+    // shortest decimal of the last value
+    private long decimalUnscaled;
+    private int decimalScale;
+
+    private FixedPointReference(BigDecimal decimal) {
+        this.decimal = decimal;
+        BigDecimal value = decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+        isFixedPoint = value.scale() <= MAX_SCALE && value.unscaledValue().bitLength() < 63;
+        if (isFixedPoint) {
+            unscaled = value.unscaledValue().longValue();
+            scale = value.scale();
+        } else {
+            unscaled = 0L;
+            scale = 0;
+        }
+    }
+
+    /** Reference with the decimal value of a double, like {@link BigDecimal#valueOf(double)}. */
+    static FixedPointReference of(double value) {
+        return new FixedPointReference(BigDecimal.valueOf(value));
+    }
+
+    /** Reference with value {@code unscaled * 10^-scale}. */
+    static FixedPointReference of(long unscaled, int scale) {
+        return new FixedPointReference(BigDecimal.valueOf(unscaled, scale));
+    }
+
+    /**
+     * Reference with the value of a decimal string.
+     * @throws NumberFormatException if the string is not a decimal number.
+     */
+    static FixedPointReference parse(String value) {
+        return new FixedPointReference(new BigDecimal(value));
+    }
+
+    /**
+     * Exact difference between a value and the reference, rounded to the nearest double. The
+     * value is taken as the shortest decimal that represents it, like
+     * {@link BigDecimal#valueOf(double)} does.
+     * @throws NumberFormatException if the value is infinite or NaN.
+     */
+    double subtractFrom(double value) {
+        if (isFixedPoint && computeDecimal(value)) {
+            int commonScale = Math.max(decimalScale, scale);
+            long a = scaleUp(decimalUnscaled, commonScale - decimalScale);
+            long b = scaleUp(unscaled, commonScale - scale);
+            if (a != OVERFLOW && b != OVERFLOW) {
+                long difference = a - b;
+                // no overflow, and the difference can be negated
+                if (((a ^ b) & (a ^ difference)) >= 0 && difference != Long.MIN_VALUE) {
+                    return toDouble(difference, commonScale);
+                }
+            }
+        }
+        return BigDecimal.valueOf(value).subtract(decimal).doubleValue();
+    }
+
+    /**
+     * Compute the shortest decimal that rounds to a double, into {@link #decimalUnscaled} and
+     * {@link #decimalScale}. This is the decimal of {@link Double#toString(double)}, computed
+     * exactly from the bits of the double. For each scale, the double is multiplied by the power
+     * of ten with 128-bit arithmetic, and the nearest integer at that scale is used if it lies
+     * within half a unit in the last place of the double.
+     * @return false if the value does not fit, or if it is an edge case that is left to
+     *         BigDecimal: a decimal exactly halfway, or a power of two, of which the gap to
+     *         the next lower double is smaller.
+     */
+    private boolean computeDecimal(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        int biasedExponent = (int) (bits >>> 52) & 0x7FF;
+        long fraction = bits & SIGNIFICAND_MASK;
+        if (biasedExponent == 0 && fraction == 0L) {
+            decimalUnscaled = 0L;
+            decimalScale = 0;
+            return true;
+        }
+        // value = significand * 2^-shift; subnormals, large integers and NaN do not fit
+        int shift = 1075 - biasedExponent;
+        if (biasedExponent == 0 || shift <= 0 || shift >= 128) {
+            return false;
+        }
+        long significand = fraction | (1L << 52);
+        long halfHigh = shift > 64 ? 1L << (shift - 65) : 0L;
+        long halfLow = shift > 64 ? 0L : 1L << (shift - 1);
+        for (int scale = 0; scale <= MAX_SCALE; scale++) {
+            // product = significand * 10^scale, split into quotient and remainder of 2^shift
+            long power = POW10[scale];
+            long productLow = significand * power;
+            long productHigh = multiplyHigh(significand, power);
+            long quotient;
+            long remainderHigh;
+            long remainderLow;
+            if (shift < 64) {
+                if (productHigh >>> shift != 0L) {
+                    return false;
+                }
+                quotient = (productLow >>> shift) | (productHigh << (64 - shift));
+                remainderHigh = 0L;
+                remainderLow = productLow & ((1L << shift) - 1);
+            } else {
+                quotient = productHigh >>> (shift - 64);
+                remainderHigh = shift == 64 ? 0L : productHigh & ((1L << (shift - 64)) - 1);
+                remainderLow = productLow;
+            }
+            if (quotient < 0L) {
+                return false;
+            }
+            int comparison = remainderHigh != halfHigh
+                    ? compareUnsigned(remainderHigh, halfHigh)
+                    : compareUnsigned(remainderLow, halfLow);
+            if (comparison == 0) {
+                return false;
+            }
+            // distance to the nearest integer, in units of 2^-shift
+            long distanceHigh;
+            long distanceLow;
+            if (comparison < 0) {
+                distanceHigh = remainderHigh;
+                distanceLow = remainderLow;
+            } else {
+                long fullHigh = (halfHigh << 1) | (halfLow >>> 63);
+                long fullLow = halfLow << 1;
+                distanceLow = fullLow - remainderLow;
+                distanceHigh = fullHigh - remainderHigh
+                        - (compareUnsigned(fullLow, remainderLow) < 0 ? 1L : 0L);
+            }
+            // the integer is within half a unit in the last place if 2 * distance < 10^scale
+            if (distanceHigh == 0L && distanceLow >= 0L && distanceLow < (power + 1L) / 2L) {
+                if (fraction == 0L && (remainderHigh | remainderLow) != 0L) {
+                    return false;
+                }
+                long digits = comparison > 0 ? quotient + 1L : quotient;
+                if (digits < 0L) {
+                    return false;
+                }
+                decimalUnscaled = value < 0d ? -digits : digits;
+                decimalScale = scale;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** High 64 bits of the unsigned product of two non-negative longs. */
+    private static long multiplyHigh(long a, long b) {
+        long a0 = a & 0xFFFFFFFFL;
+        long a1 = a >>> 32;
+        long b0 = b & 0xFFFFFFFFL;
+        long b1 = b >>> 32;
+        long p01 = a0 * b1;
+        long p10 = a1 * b0;
+        long middle = ((a0 * b0) >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+        return a1 * b1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    /** Compare two longs as unsigned values. */
+    private static int compareUnsigned(long a, long b) {
+        return Long.compare(a + Long.MIN_VALUE, b + Long.MIN_VALUE);
+    }
+
+    /** Multiply by {@code 10^exponent}, or return {@link #OVERFLOW} if it does not fit. */
+    private static long scaleUp(long value, int exponent) {
+        if (exponent == 0) {
+            return value;
+        }
+        if (exponent > MAX_SCALE || Math.abs(value) > Long.MAX_VALUE / POW10[exponent]) {
+            return OVERFLOW;
+        }
+        return value * POW10[exponent];
+    }
+
+    /**
+     * Value of {@code unscaled * 10^-scale}, correctly rounded to the nearest double with ties to
+     * even, like {@link BigDecimal#doubleValue()}.
+     * @param unscaled unscaled value, not {@link Long#MIN_VALUE}.
+     * @param scale decimal scale, at most {@value #MAX_SCALE}.
+     */
+    static double toDouble(long unscaled, int scale) {
+        if (unscaled == 0L) {
+            return 0d;
+        }
+        long magnitude = Math.abs(unscaled);
+        long divisor = POW10[scale];
+        double result;
+        if (magnitude < 1L << 53) {
+            // both operands are exact doubles, so the division is correctly rounded
+            result = magnitude / (double) divisor;
+        } else {
+            // long division to 54 significant bits, plus a sticky bit for the remainder
+            long quotient = magnitude / divisor;
+            long remainder = magnitude % divisor;
+            int exponent = 0;
+            boolean isSticky = false;
+            if (quotient >= 1L << 54) {
+                while (quotient >= 1L << 54) {
+                    isSticky |= (quotient & 1L) != 0L;
+                    quotient >>>= 1;
+                    exponent++;
+                }
+            } else {
+                while (quotient < 1L << 53) {
+                    remainder <<= 1;
+                    quotient <<= 1;
+                    exponent--;
+                    if (remainder >= divisor) {
+                        quotient |= 1L;
+                        remainder -= divisor;
+                    }
+                }
+            }
+            isSticky |= remainder != 0L;
+            boolean isHalf = (quotient & 1L) != 0L;
+            quotient >>>= 1;
+            exponent++;
+            if (isHalf && (isSticky || (quotient & 1L) != 0L)) {
+                quotient++;
+            }
+            result = Math.scalb((double) quotient, exponent);
+        }
+        return unscaled < 0L ? -result : result;
+    }
+
+    /** Whether the reference is stored in fixed-point form. */
+    boolean isFixedPoint() {
+        return isFixedPoint;
+    }
+
+    /** Unscaled value of the fixed-point form. */
+    long getUnscaled() {
+        return unscaled;
+    }
+
+    /** Decimal scale of the fixed-point form. */
+    int getScale() {
+        return scale;
+    }
+
+    /** Decimal string of the reference, like {@link BigDecimal#toString()}. */
+    @Override
+    public String toString() {
+        return decimal.toString();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Resamples multiple sensor streams onto a shared grid of fixed-rate sample times, so that the
+ * samples of all streams are aligned. Values at grid times are linearly interpolated between the
+ * surrounding samples of each stream. A grid time is only emitted when all streams have received
+ * samples beyond it, or when a stream has fallen behind the newest sample by more than the maximum
+ * latency; the latter stream is then left out of that grid time. Streams without a sample on
+ * either side of a grid time, or with a gap longer than the maximum gap around it, are also left
+ * out. Each stream buffers a bounded number of samples. If a buffer is full, the grid times it
+ * still holds are emitted without waiting for the other streams. This class is not thread-safe.
+ */
+class ImuResampler {
+    private final long interval;
+    private final long maxLatency;
+    private long maxGap;
+    private final Stream[] streams;
+    private boolean isStarted;
+    private long nextTime;
+    private long newestTime;
+    private long frameCount;
+    private long incompleteFrameCount;
+
+    /**
+     * Resampler with one stream per output. All times are in the unit of the sample times.
+     * @param interval time between consecutive grid times. Grid times are multiples of this
+     *                 interval.
+     * @param maxLatency maximum time that a stream may lag behind the newest sample of any stream
+     *                   before grid times are emitted without it.
+     * @param maxGap maximum time between two samples of a stream to interpolate between.
+     * @param capacity minimum number of samples to buffer per stream.
+     * @param outputs consumers of the resampled values, one per stream.
+     */
+    ImuResampler(long interval, long maxLatency, long maxGap, int capacity,
+            SensorRingBuffer.SampleConsumer... outputs) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Resampling interval must be positive");
+        }
+        this.interval = interval;
+        this.maxLatency = maxLatency;
+        this.maxGap = maxGap;
+        this.streams = new Stream[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            streams[i] = new Stream(capacity, outputs[i]);
+        }
+    }
+
+    /** Consumer of the samples of the stream with given index. */
+    SensorRingBuffer.SampleConsumer getInput(int stream) {
+        return streams[stream];
+    }
+
+    /**
+     * Emit all grid times up to the newest sample, without waiting for lagging streams. Call
+     * this when no more samples are expected for a while.
+     */
+    void flush() {
+        if (isStarted) {
+            emit(newestTime);
+        }
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    long getMaxLatency() {
+        return maxLatency;
+    }
+
+    long getMaxGap() {
+        return maxGap;
+    }
+
+    /** Set the maximum time between two samples of a stream to interpolate between. */
+    void setMaxGap(long maxGap) {
+        this.maxGap = maxGap;
+    }
+
+    /** Number of grid times that were emitted. */
+    long getFrameCount() {
+        return frameCount;
+    }
+
+    /** Number of emitted grid times for which at least one stream had no value. */
+    long getIncompleteFrameCount() {
+        return incompleteFrameCount;
+    }
+
+    private void add(Stream stream, long time, float x, float y, float z) {
+        if (!isStarted) {
+            isStarted = true;
+            nextTime = ceilToGrid(time);
+            newestTime = time;
+            // streams without samples are considered to lag from the first sample onwards
+            for (Stream s : streams) {
+                s.latest = time - 1;
+            }
+        }
+        if (!stream.buffer.isEmpty() && time <= stream.latest) {
+            // out of order sample
+            return;
+        }
+        if (stream.buffer.isFull()) {
+            emit(stream.buffer.getTime(1));
+            if (stream.buffer.isFull()) {
+                stream.buffer.removeFirst();
+            }
+        }
+        stream.buffer.add(time, x, y, z);
+        stream.latest = time;
+        if (time > newestTime) {
+            newestTime = time;
+        }
+        emit(Long.MIN_VALUE);
+    }
+
+    /**
+     * Emit grid times while all streams are ready for them.
+     * @param forceUntil emit grid times up to this time regardless of lagging streams.
+     */
+    private void emit(long forceUntil) {
+        while (true) {
+            long time = nextTime;
+            if (time > forceUntil) {
+                for (Stream s : streams) {
+                    if (s.latest < time && newestTime - s.latest <= maxLatency) {
+                        return;
+                    }
+                }
+            }
+            int count = 0;
+            for (Stream s : streams) {
+                if (s.emit(time)) {
+                    count++;
+                }
+            }
+            nextTime = time + interval;
+            if (count > 0) {
+                frameCount++;
+                if (count < streams.length) {
+                    incompleteFrameCount++;
+                }
+            } else {
+                // no stream has data here, skip to the first sample after this time
+                long next = Long.MAX_VALUE;
+                for (Stream s : streams) {
+                    next = Math.min(next, s.firstTimeAfter(time));
+                }
+                if (next == Long.MAX_VALUE) {
+                    return;
+                }
+                nextTime = Math.max(nextTime, ceilToGrid(next));
+            }
+            for (Stream s : streams) {
+                s.discardBefore(nextTime);
+            }
+        }
+    }
+
+    private long ceilToGrid(long time) {
+        long remainder = time % interval;
+        if (remainder == 0) {
+            return time;
+        }
+        return remainder > 0 ? time - remainder + interval : time - remainder;
+    }
+
+    /** Samples of a single stream. */
+    private class Stream implements SensorRingBuffer.SampleConsumer {
+        private final SensorRingBuffer buffer;
+        private final SensorRingBuffer.SampleConsumer output;
+        private long latest;
+
+        Stream(int capacity, SensorRingBuffer.SampleConsumer output) {
+            this.buffer = new SensorRingBuffer(capacity);
+            this.output = output;
+        }
+
+        @Override
+        public void accept(long time, float x, float y, float z) {
+            add(this, time, x, y, z);
+        }
+
+        /** Emit the interpolated value at given time, if possible. */
+        boolean emit(long time) {
+            int size = buffer.size();
+            for (int i = 0; i < size; i++) {
+                long t1 = buffer.getTime(i);
+                if (t1 == time) {
+                    output.accept(time, buffer.getX(i), buffer.getY(i), buffer.getZ(i));
+                    return true;
+                } else if (t1 > time) {
+                    if (i == 0) {
+                        return false;
+                    }
+                    long t0 = buffer.getTime(i - 1);
+                    if (t1 - t0 > maxGap) {
+                        return false;
+                    }
+                    float f = (float) ((double) (time - t0) / (t1 - t0));
+                    output.accept(time,
+                            interpolate(buffer.getX(i - 1), buffer.getX(i), f),
+                            interpolate(buffer.getY(i - 1), buffer.getY(i), f),
+                            interpolate(buffer.getZ(i - 1), buffer.getZ(i), f));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Time of the first sample after given time, or {@link Long#MAX_VALUE} if none. */
+        long firstTimeAfter(long time) {
+            int size = buffer.size();
+            for (int i = 0; i < size; i++) {
+                long t = buffer.getTime(i);
+                if (t > time) {
+                    return t;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /** Remove samples that are no longer needed to interpolate at given time or later. */
+        void discardBefore(long time) {
+            while (buffer.size() >= 2 && buffer.getTime(1) <= time) {
+                buffer.removeFirst();
+            }
+        }
+
+        private float interpolate(float v0, float v1, float f) {
+            return v0 + (v1 - v0) * f;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * State machine that decides whether high-rate motion sensors can be parked because the phone is
+ * stationary. It consumes acceleration samples and computes the standard deviation of the
+ * acceleration magnitude over consecutive windows. When it stays below a threshold for a given
+ * duration, the sensors are parked. They are resumed as soon as a window exceeds the threshold,
+ * or when motion is reported by an external detector. This class is not thread-safe.
+ */
+class MotionGate implements SensorRingBuffer.SampleConsumer {
+    private final SensorWindowAggregator aggregator;
+    private final double varianceThreshold;
+    private final long stillDuration;
+    private final Listener listener;
+
+    private boolean isParked;
+    private boolean isStill;
+    private long stillStart;
+    private long motionTime = Long.MIN_VALUE;
+
+    /**
+     * Motion gate with given parameters. All times are in the unit of the sample times.
+     * @param windowLength length of the windows to compute the acceleration variability over.
+     * @param threshold standard deviation of the acceleration magnitude below which the phone is
+     *                  considered stationary, in the unit of the samples.
+     * @param stillDuration time that the phone must be stationary before parking.
+     * @param listener listener to state changes.
+     */
+    MotionGate(long windowLength, double threshold, long stillDuration, Listener listener) {
+        this.aggregator = new SensorWindowAggregator(windowLength, this::processWindow);
+        this.varianceThreshold = threshold * threshold;
+        this.stillDuration = stillDuration;
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(long time, float x, float y, float z) {
+        aggregator.accept(time, x, y, z);
+    }
+
+    private void processWindow(long windowStart, SensorWindowAggregator window) {
+        if (windowStart < motionTime) {
+            // window may contain samples from before the sensors were parked
+            return;
+        }
+        if (window.getMagnitudeVariance() < varianceThreshold) {
+            if (!isStill) {
+                isStill = true;
+                stillStart = windowStart;
+            }
+            long windowEnd = windowStart + window.getWindowLength();
+            if (!isParked && windowEnd - stillStart >= stillDuration) {
+                isParked = true;
+                listener.onPark(windowEnd);
+            }
+        } else {
+            onMotion(windowStart);
+        }
+    }
+
+    /**
+     * Report motion from an external detector.
+     * @param time time the motion was detected.
+     */
+    void onMotion(long time) {
+        isStill = false;
+        motionTime = time;
+        if (isParked) {
+            isParked = false;
+            listener.onResume(time);
+        }
+    }
+
+    /** Whether the motion sensors are currently parked. */
+    boolean isParked() {
+        return isParked;
+    }
+
+    /** Listener to motion gate state changes. */
+    interface Listener {
+        /**
+         * Park the motion sensors, because the phone is stationary.
+         * @param time time from which the phone was considered stationary long enough.
+         */
+        void onPark(long time);
+
+        /**
+         * Resume the motion sensors, because the phone moved.
+         * @param time time motion was detected.
+         */
+        void onResume(long time);
+    }
+}
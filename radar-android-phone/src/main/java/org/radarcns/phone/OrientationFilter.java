@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Complementary filter that estimates the orientation of the device from the accelerometer,
+ * gyroscope and magnetometer. The gyroscope is integrated for short-term changes, and the
+ * estimate is pulled towards the orientation given by gravity and the magnetic field with the
+ * given time constant, to correct gyroscope drift. Without magnetometer, only the tilt is
+ * corrected, and the heading is relative to the initial heading. Without gyroscope, the
+ * orientation follows gravity and the magnetic field directly.
+ *
+ * <p>Orientations are quaternions {@code (w, x, y, z)} that rotate device coordinates into the
+ * world coordinates of Android, with x pointing east, y pointing north and z pointing up. This
+ * is the same rotation as given by the rotation vector sensor. This class does not allocate
+ * memory per sample and is not thread-safe.
+ */
+class OrientationFilter {
+    private final double timeConstant;
+    private final float[] q = {1f, 0f, 0f, 0f};
+    private final float[] reference = new float[4];
+    private final float[] matrix = new float[9];
+    private final float[] gravity = new float[3];
+    private final float[] magneticField = new float[3];
+    private boolean hasOrientation;
+    private boolean hasMagneticField;
+    private boolean hasGyroscope;
+    private long gyroscopeTime;
+    private long correctionTime;
+
+    /**
+     * Filter with given correction speed.
+     * @param timeConstant time constant of the correction towards gravity and the magnetic field,
+     *                     in the unit of the sample times.
+     */
+    OrientationFilter(long timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+    /** Process an accelerometer sample, in any unit. */
+    void onAcceleration(long time, float x, float y, float z) {
+        gravity[0] = x;
+        gravity[1] = y;
+        gravity[2] = z;
+        correct(time);
+    }
+
+    /** Process a magnetometer sample, in any unit. */
+    void onMagneticField(long time, float x, float y, float z) {
+        magneticField[0] = x;
+        magneticField[1] = y;
+        magneticField[2] = z;
+        hasMagneticField = true;
+    }
+
+    /** Process a gyroscope sample, in rad/s, with its time in nanoseconds. */
+    void onGyroscope(long time, float x, float y, float z) {
+        if (hasGyroscope && hasOrientation && time > gyroscopeTime) {
+            double dt = (time - gyroscopeTime) / 1e9;
+            double speed = Math.sqrt(x * x + y * y + z * z);
+            double angle = speed * dt;
+            if (angle > 1e-9) {
+                double s = Math.sin(angle / 2) / speed;
+                multiply(q, (float) Math.cos(angle / 2), (float) (x * s), (float) (y * s), (float) (z * s));
+                normalize(q);
+            }
+        }
+        hasGyroscope = true;
+        gyroscopeTime = time;
+    }
+
+    /** Whether an orientation is available. */
+    boolean hasOrientation() {
+        return hasOrientation;
+    }
+
+    /** Current orientation as quaternion {@code (w, x, y, z)}. */
+    float[] getOrientation() {
+        return q;
+    }
+
+    /** Pull the orientation towards the orientation given by gravity and magnetic field. */
+    private void correct(long time) {
+        float[] north;
+        if (hasMagneticField) {
+            north = magneticField;
+        } else if (hasOrientation) {
+            // keep the current heading, only correct the tilt
+            toRotationMatrix(q, matrix);
+            north = reference;
+            north[0] = matrix[3];
+            north[1] = matrix[4];
+            north[2] = matrix[5];
+        } else {
+            // no heading available, start with the device y axis pointing north
+            north = reference;
+            north[0] = 0f;
+            north[1] = 1f;
+            north[2] = 0f;
+            if (!fromGravityAndNorth(gravity, north, matrix)) {
+                // the device y axis points up or down, use the z axis instead
+                north[1] = 0f;
+                north[2] = 1f;
+            }
+        }
+        if (!fromGravityAndNorth(gravity, north, matrix)) {
+            return;
+        }
+        fromRotationMatrix(matrix, reference);
+        if (!hasOrientation || !hasGyroscope) {
+            System.arraycopy(reference, 0, q, 0, 4);
+            hasOrientation = true;
+        } else {
+            float k = (float) (1d - Math.exp(-Math.max(time - correctionTime, 0L) / timeConstant));
+            float sign = q[0] * reference[0] + q[1] * reference[1] + q[2] * reference[2]
+                    + q[3] * reference[3] < 0 ? -1f : 1f;
+            for (int i = 0; i < 4; i++) {
+                q[i] += (sign * reference[i] - q[i]) * k;
+            }
+            normalize(q);
+        }
+        correctionTime = time;
+    }
+
+    /**
+     * Rotation matrix from device to world coordinates, like
+     * {@code SensorManager.getRotationMatrix}.
+     * @return false if gravity and north are (nearly) parallel.
+     */
+    private static boolean fromGravityAndNorth(float[] gravity, float[] north, float[] result) {
+        float ax = gravity[0];
+        float ay = gravity[1];
+        float az = gravity[2];
+        float hx = north[1] * az - north[2] * ay;
+        float hy = north[2] * ax - north[0] * az;
+        float hz = north[0] * ay - north[1] * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float normA = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (normH < 1e-6f || normA < 1e-6f) {
+            return false;
+        }
+        hx /= normH;
+        hy /= normH;
+        hz /= normH;
+        ax /= normA;
+        ay /= normA;
+        az /= normA;
+        result[0] = hx;
+        result[1] = hy;
+        result[2] = hz;
+        result[3] = ay * hz - az * hy;
+        result[4] = az * hx - ax * hz;
+        result[5] = ax * hy - ay * hx;
+        result[6] = ax;
+        result[7] = ay;
+        result[8] = az;
+        return true;
+    }
+
+    /** Quaternion {@code (w, x, y, z)} of a row-major rotation matrix. */
+    static void fromRotationMatrix(float[] m, float[] result) {
+        float trace = m[0] + m[4] + m[8];
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1f) * 2f;
+            result[0] = 0.25f * s;
+            result[1] = (m[7] - m[5]) / s;
+            result[2] = (m[2] - m[6]) / s;
+            result[3] = (m[3] - m[1]) / s;
+        } else if (m[0] > m[4] && m[0] > m[8]) {
+            float s = (float) Math.sqrt(1f + m[0] - m[4] - m[8]) * 2f;
+            result[0] = (m[7] - m[5]) / s;
+            result[1] = 0.25f * s;
+            result[2] = (m[1] + m[3]) / s;
+            result[3] = (m[2] + m[6]) / s;
+        } else if (m[4] > m[8]) {
+            float s = (float) Math.sqrt(1f + m[4] - m[0] - m[8]) * 2f;
+            result[0] = (m[2] - m[6]) / s;
+            result[1] = (m[1] + m[3]) / s;
+            result[2] = 0.25f * s;
+            result[3] = (m[5] + m[7]) / s;
+        } else {
+            float s = (float) Math.sqrt(1f + m[8] - m[0] - m[4]) * 2f;
+            result[0] = (m[3] - m[1]) / s;
+            result[1] = (m[2] + m[6]) / s;
+            result[2] = (m[5] + m[7]) / s;
+            result[3] = 0.25f * s;
+        }
+        normalize(result);
+    }
+
+    /** Row-major rotation matrix of a quaternion {@code (w, x, y, z)}. */
+    static void toRotationMatrix(float[] q, float[] result) {
+        float w = q[0];
+        float x = q[1];
+        float y = q[2];
+        float z = q[3];
+        result[0] = 1f - 2f * (y * y + z * z);
+        result[1] = 2f * (x * y - z * w);
+        result[2] = 2f * (x * z + y * w);
+        result[3] = 2f * (x * y + z * w);
+        result[4] = 1f - 2f * (x * x + z * z);
+        result[5] = 2f * (y * z - x * w);
+        result[6] = 2f * (x * z - y * w);
+        result[7] = 2f * (y * z + x * w);
+        result[8] = 1f - 2f * (x * x + y * y);
+    }
+
+    /**
+     * Quaternion {@code (w, x, y, z)} of the values of a rotation vector sensor event. The scalar
+     * component is computed if the event does not contain it.
+     */
+    static void fromRotationVector(float[] values, float[] result) {
+        result[1] = values[0];
+        result[2] = values[1];
+        result[3] = values[2];
+        if (values.length >= 4) {
+            result[0] = values[3];
+        } else {
+            float w = 1f - values[0] * values[0] - values[1] * values[1] - values[2] * values[2];
+            result[0] = w > 0f ? (float) Math.sqrt(w) : 0f;
+        }
+    }
+
+    /**
+     * Azimuth, pitch and roll in radians of a quaternion {@code (w, x, y, z)}, like
+     * {@code SensorManager.getOrientation}.
+     * @param matrix array of nine values to use for the intermediate rotation matrix.
+     */
+    static void eulerAngles(float[] q, float[] matrix, float[] result) {
+        toRotationMatrix(q, matrix);
+        result[0] = (float) Math.atan2(matrix[1], matrix[4]);
+        result[1] = (float) Math.asin(-Math.max(-1f, Math.min(1f, matrix[7])));
+        result[2] = (float) Math.atan2(-matrix[6], matrix[8]);
+    }
+
+    /** Multiply quaternion {@code q} in place by {@code (w, x, y, z)} on the right. */
+    private static void multiply(float[] q, float w, float x, float y, float z) {
+        float qw = q[0];
+        float qx = q[1];
+        float qy = q[2];
+        float qz = q[3];
+        q[0] = qw * w - qx * x - qy * y - qz * z;
+        q[1] = qw * x + qx * w + qy * z - qz * y;
+        q[2] = qw * y - qx * z + qy * w + qz * x;
+        q[3] = qw * z + qx * y - qy * x + qz * w;
+    }
+
+    private static void normalize(float[] q) {
+        float norm = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        if (norm > 0f) {
+            for (int i = 0; i < 4; i++) {
+                q[i] /= norm;
+            }
+        }
+    }
+}
@@ -26,12 +26,14 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import org.radarcns.android.device.AbstractDeviceManager;
 import org.radarcns.android.device.BaseDeviceState;
 import org.radarcns.android.device.DeviceStatusListener;
 import org.radarcns.android.util.BatteryLevelReceiver;
+import org.radarcns.android.util.OfflineProcessor;
 import org.radarcns.kafka.ObservationKey;
 import org.radarcns.passive.phone.LocationProvider;
 import org.radarcns.passive.phone.PhoneRelativeLocation;
@@ -40,11 +42,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, BaseDeviceState> implements LocationListener, BatteryLevelReceiver.BatteryLevelListener {
     private static final Logger logger = LoggerFactory.getLogger(PhoneLocationManager.class);
@@ -57,6 +60,15 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
     private static final String LATITUDE_REFERENCE = "latitude.reference";
     private static final String LONGITUDE_REFERENCE = "longitude.reference";
     private static final String ALTITUDE_REFERENCE = "altitude.reference";
+    // fixed-point form of a reference, replacing the decimal string
+    private static final String REFERENCE_UNSCALED_SUFFIX = ".unscaled";
+    private static final String REFERENCE_SCALE_SUFFIX = ".scale";
+    private static final int REQUEST_CODE_RATE_PROFILE = 482480671;
+    private static final int REQUEST_CODE_GPS_FIX = 482480672;
+    private static final String ACTION_GPS_FIX = "org.radarcns.phone.PhoneLocationManager.ACTION_GPS_FIX";
+    private static final int REQUEST_CODE_NETWORK_FIX = 482480673;
+    private static final String ACTION_NETWORK_FIX = "org.radarcns.phone.PhoneLocationManager.ACTION_NETWORK_FIX";
+    private static final long SINGLE_FIX_TIMEOUT_MILLIS = 60_000L;
 
     private static final Map<String, LocationProvider> PROVIDER_TYPES = new HashMap<>();
 
@@ -68,8 +80,8 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
     private final AvroTopic<ObservationKey, PhoneRelativeLocation> locationTopic;
     private final LocationManager locationManager;
     private final BatteryLevelReceiver batteryLevelReceiver;
-    private BigDecimal latitudeReference;
-    private BigDecimal longitudeReference;
+    private FixedPointReference latitudeReference;
+    private FixedPointReference longitudeReference;
     private double altitudeReference;
     private final HandlerThread handlerThread;
     private Handler handler;
@@ -81,6 +93,38 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
     private int networkInterval;
     private int networkIntervalReduced;
     private boolean isStarted;
+    private final RateProfileMonitor rateProfileMonitor;
+    private float[] profileIntervalFactors;
+    private RateProfile rateProfile = RateProfile.DEFAULT;
+
+    // Passive location fixes of other apps, and own fixes that are skipped if a recent fix exists
+    private boolean isPassive;
+    private int passiveInterval;
+    private final LocationListener passiveListener;
+    private final SingleFixListener gpsFixListener;
+    private final SingleFixListener networkFixListener;
+    // Only accessed from the handler thread
+    private final long[] lastFixNanos = new long[LocationProvider.values().length];
+    private OfflineProcessor gpsFixProcessor;
+    private OfflineProcessor networkFixProcessor;
+    private long passiveFixCount;
+    private long skippedFixCount;
+
+    // Backs off the GPS interval while the device stays at one place
+    private volatile StayPointDetector stayPointDetector;
+    private int gpsBackoffFactor = 1;
+    private boolean isStationaryBackoff;
+    private float stationaryRadius;
+    private int stationaryDwell;
+    private int stationaryMaxFactor;
+
+    // Adapts the GPS interval to the speed of the device
+    private volatile AdaptiveIntervalScheduler adaptiveScheduler;
+    private long adaptiveGpsInterval;
+    private boolean isAdaptive;
+    private float adaptiveDistance;
+    private int adaptiveMinInterval;
+    private int adaptiveMaxInterval;
 
     public PhoneLocationManager(PhoneLocationService context) {
         super(context);
@@ -92,6 +136,31 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
         batteryLevelReceiver = new BatteryLevelReceiver(context, this);
         this.frequency = FREQUENCY_OFF;
 
+        profileIntervalFactors = new float[RateProfile.values().length];
+        Arrays.fill(profileIntervalFactors, 1f);
+        rateProfileMonitor = new RateProfileMonitor(context, REQUEST_CODE_RATE_PROFILE,
+                this::setRateProfile);
+
+        passiveListener = new LocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                if (recordLocation(location)) {
+                    passiveFixCount++;
+                }
+            }
+
+            @Override
+            public void onStatusChanged(String provider, int status, Bundle extras) {}
+
+            @Override
+            public void onProviderEnabled(String provider) {}
+
+            @Override
+            public void onProviderDisabled(String provider) {}
+        };
+        gpsFixListener = new SingleFixListener(LocationManager.GPS_PROVIDER);
+        networkFixListener = new SingleFixListener(LocationManager.NETWORK_PROVIDER);
+
         initializeReferences();
 
         isStarted = false;
@@ -105,11 +174,8 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
 
     private void initializeReferences() {
         SharedPreferences preferences = getPreferences();
-        String latitudeString = preferences.getString(LATITUDE_REFERENCE, null);
-        latitudeReference = latitudeString != null ? new BigDecimal(latitudeString) : null;
-
-        String longitudeString = preferences.getString(LONGITUDE_REFERENCE, null);
-        longitudeReference = longitudeString != null ? new BigDecimal(longitudeString) : null;
+        latitudeReference = loadReference(preferences, LATITUDE_REFERENCE);
+        longitudeReference = loadReference(preferences, LONGITUDE_REFERENCE);
 
         if (preferences.contains(ALTITUDE_REFERENCE)) {
             try {
@@ -126,8 +192,46 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
         }
     }
 
+    /**
+     * Load a coordinate reference. References that were stored as decimal string only are
+     * migrated to their fixed-point form.
+     */
+    @Nullable
+    private FixedPointReference loadReference(SharedPreferences preferences, String key) {
+        if (preferences.contains(key + REFERENCE_UNSCALED_SUFFIX)
+                && preferences.contains(key + REFERENCE_SCALE_SUFFIX)) {
+            return FixedPointReference.of(
+                    preferences.getLong(key + REFERENCE_UNSCALED_SUFFIX, 0L),
+                    preferences.getInt(key + REFERENCE_SCALE_SUFFIX, 0));
+        }
+        String value = preferences.getString(key, null);
+        if (value == null) {
+            return null;
+        }
+        FixedPointReference reference = FixedPointReference.parse(value);
+        storeReference(key, reference);
+        return reference;
+    }
+
+    /**
+     * Store a coordinate reference. The decimal string is stored as well, so the reference is
+     * kept if an older version of the app is installed.
+     */
+    private void storeReference(String key, FixedPointReference reference) {
+        SharedPreferences.Editor editor = getPreferences().edit()
+                .putString(key, reference.toString());
+        if (reference.isFixedPoint()) {
+            editor.putLong(key + REFERENCE_UNSCALED_SUFFIX, reference.getUnscaled())
+                    .putInt(key + REFERENCE_SCALE_SUFFIX, reference.getScale());
+        }
+        editor.apply();
+    }
+
     @Override
     public void start(@NonNull Set<String> set) {
+        // select the initial profile before location updates are evaluated
+        rateProfileMonitor.start();
+
         this.handlerThread.start();
         this.handler = new Handler(this.handlerThread.getLooper());
 
@@ -141,17 +245,51 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
     }
 
     public void onLocationChanged(Location location) {
+        recordLocation(location);
+    }
+
+    /**
+     * Send a location fix. Fixes are tagged with the provider that produced them. A fix that was
+     * already sent, for example when the passive provider repeats a fix that this manager
+     * requested itself, is not sent again. Only call from the handler thread.
+     * @return whether the fix was sent.
+     */
+    private boolean recordLocation(Location location) {
         if (location == null) {
-            return;
+            return false;
         }
 
-        double eventTimestamp = location.getTime() / 1000d;
-        double timestamp = System.currentTimeMillis() / 1000d;
-
         LocationProvider provider = PROVIDER_TYPES.get(location.getProvider());
         if (provider == null) {
             provider = LocationProvider.OTHER;
         }
+        long fixNanos = location.getElapsedRealtimeNanos();
+        if (fixNanos > 0L) {
+            if (fixNanos <= lastFixNanos[provider.ordinal()]) {
+                return false;
+            }
+            lastFixNanos[provider.ordinal()] = fixNanos;
+        }
+
+        StayPointDetector detector = stayPointDetector;
+        if (detector != null) {
+            long fixTime = fixNanos > 0L ? fixNanos / 1_000_000L : SystemClock.elapsedRealtime();
+            int factor = detector.onFix(fixTime, location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+            setGpsBackoffFactor(factor);
+        }
+        AdaptiveIntervalScheduler scheduler = adaptiveScheduler;
+        if (scheduler != null) {
+            long fixTime = fixNanos > 0L ? fixNanos / 1_000_000L : SystemClock.elapsedRealtime();
+            if (scheduler.onFix(fixTime, location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                    location.hasSpeed() ? location.getSpeed() : Float.NaN)) {
+                setAdaptiveGpsInterval(scheduler, scheduler.getInterval());
+            }
+        }
+
+        double eventTimestamp = location.getTime() / 1000d;
+        double timestamp = System.currentTimeMillis() / 1000d;
 
         // Coordinates in degrees from the first coordinate registered
         Double latitude = normalizeFloating(getRelativeLatitude(location.getLatitude()));
@@ -169,6 +307,7 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
 
         logger.info("Location: {} {} {} {} {} {} {} {} {}", provider, eventTimestamp, latitude,
                 longitude, accuracy, altitude, speed, bearing, timestamp);
+        return true;
     }
 
     public void onStatusChanged(String provider, int status, Bundle extras) {}
@@ -178,8 +317,14 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
     public void onProviderDisabled(String provider) {}
 
     public synchronized void setLocationUpdateRate(final long periodGPS, final long periodNetwork) {
+        Handler localHandler = handler;
+        if (localHandler == null) {
+            return;
+        }
+        final boolean passive = isPassive;
+        final long passivePeriod = passiveInterval;
         //noinspection Convert2Lambda
-        handler.post(new Runnable() {
+        localHandler.post(new Runnable() {
              @SuppressLint("MissingPermission")
              @Override
              public void run() {
@@ -188,14 +333,27 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
                  }
 
                  // Remove updates, if any
-                 locationManager.removeUpdates(PhoneLocationManager.this);
+                 removeLocationUpdates();
+
+                 if (passive) {
+                     locationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, passivePeriod * 1000, 0, passiveListener);
+                     logger.info("Location passive listener activated and set to a period of {}", passivePeriod);
+                 }
+                 gpsFixProcessor = updateFixProcessor(gpsFixProcessor, passive ? periodGPS : 0,
+                         REQUEST_CODE_GPS_FIX, ACTION_GPS_FIX, gpsFixListener);
+                 networkFixProcessor = updateFixProcessor(networkFixProcessor, passive ? periodNetwork : 0,
+                         REQUEST_CODE_NETWORK_FIX, ACTION_NETWORK_FIX, networkFixListener);
 
                  // Initialize with last known and start listening
                  if (periodGPS <= 0) {
                      logger.info("Location GPS gathering disabled in settings");
                  } else if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
                      onLocationChanged(locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER));
-                     locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, periodGPS * 1000, 0, PhoneLocationManager.this);
+                     if (passive) {
+                         gpsFixListener.request(periodGPS * 1000);
+                     } else {
+                         locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, periodGPS * 1000, 0, PhoneLocationManager.this);
+                     }
                      logger.info("Location GPS listener activated and set to a period of {}", periodGPS);
                  } else {
                      logger.warn("Location GPS listener not found");
@@ -205,7 +363,11 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
                      logger.info("Location network gathering disabled in settings");
                  } else if (locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
                      onLocationChanged(locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER));
-                     locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, periodNetwork * 1000, 0, PhoneLocationManager.this);
+                     if (passive) {
+                         networkFixListener.request(periodNetwork * 1000);
+                     } else {
+                         locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, periodNetwork * 1000, 0, PhoneLocationManager.this);
+                     }
                      logger.info("Location Network listener activated and set to a period of {}", periodNetwork);
                  } else {
                      logger.warn("Location Network listener not found");
@@ -214,6 +376,76 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
          });
     }
 
+    /** Remove all location update requests. Only call from the handler thread. */
+    private void removeLocationUpdates() {
+        locationManager.removeUpdates(this);
+        locationManager.removeUpdates(passiveListener);
+        gpsFixListener.cancel();
+        networkFixListener.cancel();
+    }
+
+    /** Stop gathering locations. Only call from the handler thread. */
+    private void stopLocationUpdates() {
+        removeLocationUpdates();
+        gpsFixProcessor = updateFixProcessor(gpsFixProcessor, 0, REQUEST_CODE_GPS_FIX,
+                ACTION_GPS_FIX, gpsFixListener);
+        networkFixProcessor = updateFixProcessor(networkFixProcessor, 0, REQUEST_CODE_NETWORK_FIX,
+                ACTION_NETWORK_FIX, networkFixListener);
+    }
+
+    /**
+     * Create, update or close the alarm that requests single fixes of a provider. The alarm does
+     * not wake the device, so a sleeping device only requests a fix once it wakes up.
+     * @param periodSeconds period of the alarm, or zero to close it.
+     * @return the updated alarm, or null if it was closed.
+     */
+    private OfflineProcessor updateFixProcessor(OfflineProcessor processor, long periodSeconds,
+            int requestCode, String action, SingleFixListener listener) {
+        if (periodSeconds <= 0) {
+            if (processor != null) {
+                processor.close();
+            }
+            return null;
+        }
+        long periodMillis = periodSeconds * 1000;
+        if (processor == null) {
+            processor = new OfflineProcessor.Builder(getService(), () -> {
+                Handler localHandler = handler;
+                if (localHandler != null) {
+                    localHandler.post(() -> listener.request(periodMillis));
+                }
+            })
+                    .requestIdentifier(requestCode, action)
+                    .interval(periodSeconds, TimeUnit.SECONDS)
+                    .wake(false)
+                    .build();
+            processor.start();
+        } else {
+            processor.setInterval(periodSeconds, TimeUnit.SECONDS);
+        }
+        return processor;
+    }
+
+    /**
+     * Set whether to record the location fixes that other apps request, with the passive
+     * provider. Own GPS and network fixes are then requested one at a time, and a request is
+     * skipped if a fix of that provider arrived less than half an interval ago. A GPS fix also
+     * counts as a recent network fix. Own fixes are not requested while the device sleeps.
+     * @param passive whether to use the passive provider.
+     * @param minimumInterval minimum time in seconds between passive fixes.
+     */
+    public synchronized void setPassive(boolean passive, int minimumInterval) {
+        if (isPassive == passive && passiveInterval == minimumInterval) {
+            return;
+        }
+        isPassive = passive;
+        passiveInterval = minimumInterval;
+
+        // reset intervals
+        this.frequency = -1;
+        this.onBatteryLevelChanged(batteryLevelReceiver.getLevel(), batteryLevelReceiver.isPlugged());
+    }
+
     /** Replace special float values with regular numbers. */
     @Nullable
     private static Double normalizeFloating(double orig) {
@@ -246,36 +478,27 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
         if (Double.isNaN(absoluteLatitude)) {
             return Double.NaN;
         }
-
-        BigDecimal latitude = BigDecimal.valueOf(absoluteLatitude);
         if (latitudeReference == null) {
             // Create reference within 8 degrees of actual latitude
             // corresponds mildly with the UTM zones used to make flat coordinates estimations.
             double reference = ThreadLocalRandom.current().nextDouble(-4, 4); // interval [-4,4)
-            latitudeReference = BigDecimal.valueOf(reference);
-
-            getPreferences().edit()
-                    .putString(LATITUDE_REFERENCE, latitudeReference.toString())
-                    .apply();
+            latitudeReference = FixedPointReference.of(reference);
+            storeReference(LATITUDE_REFERENCE, latitudeReference);
         }
 
-        return latitude.subtract(latitudeReference).doubleValue();
+        return latitudeReference.subtractFrom(absoluteLatitude);
     }
 
     private double getRelativeLongitude(double absoluteLongitude) {
         if (Double.isNaN(absoluteLongitude)) {
             return Double.NaN;
         }
-        BigDecimal longitude = BigDecimal.valueOf(absoluteLongitude);
         if (longitudeReference == null) {
-            longitudeReference = longitude;
-
-            getPreferences().edit()
-                    .putString(LONGITUDE_REFERENCE, longitudeReference.toString())
-                    .apply();
+            longitudeReference = FixedPointReference.of(absoluteLongitude);
+            storeReference(LONGITUDE_REFERENCE, longitudeReference);
         }
 
-        double relativeLongitude = longitude.subtract(longitudeReference).doubleValue();
+        double relativeLongitude = longitudeReference.subtractFrom(absoluteLongitude);
 
         // Wraparound if relative longitude outside range of valid values [-180,180]
         // assumption: relative longitude in interval [-540,540]
@@ -326,28 +549,60 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
             }
             frequency = newFrequency;
 
+            float factor = profileIntervalFactors[rateProfile.ordinal()];
             if (frequency == FREQUENCY_NORMAL) {
-                useGpsInterval = gpsInterval;
-                useNetworkInterval = networkInterval;
+                useGpsInterval = scaleInterval(adaptInterval(gpsInterval, gpsInterval), factor) * gpsBackoffFactor;
+                useNetworkInterval = scaleInterval(networkInterval, factor);
             } else {
-                useGpsInterval = gpsIntervalReduced;
-                useNetworkInterval = networkIntervalReduced;
+                useGpsInterval = scaleInterval(adaptInterval(gpsIntervalReduced, gpsInterval), factor) * gpsBackoffFactor;
+                useNetworkInterval = scaleInterval(networkIntervalReduced, factor);
             }
         }
 
         if (frequency == FREQUENCY_OFF) {
-            handler.post(() -> locationManager.removeUpdates(PhoneLocationManager.this));
+            Handler localHandler = handler;
+            if (localHandler != null) {
+                localHandler.post(this::stopLocationUpdates);
+            }
         } else {
             setLocationUpdateRate(useGpsInterval, useNetworkInterval);
         }
     }
 
+    /**
+     * GPS interval adapted to the speed of the device. At a reduced battery level, the adaptive
+     * interval is scaled by the ratio of the reduced and normal configured intervals. A disabled
+     * interval stays disabled.
+     * @param interval configured interval for the current battery level.
+     * @param normalInterval configured interval at a normal battery level.
+     */
+    private int adaptInterval(int interval, int normalInterval) {
+        if (adaptiveGpsInterval <= 0L || interval <= 0 || normalInterval <= 0) {
+            return interval;
+        }
+        long adapted = adaptiveGpsInterval * interval / normalInterval;
+        return (int) Math.min(Math.max(adapted, 1L), Integer.MAX_VALUE);
+    }
+
+    /** Multiply an interval by a rate profile factor. Non-positive results disable updates. */
+    private static long scaleInterval(int interval, float factor) {
+        if (interval <= 0 || factor <= 0f) {
+            return 0L;
+        }
+        return Math.max(1L, Math.round(interval * (double) factor));
+    }
+
     @Override
     public void close() throws IOException {
+        rateProfileMonitor.stop();
         if (handler != null) {
             handler.post(() -> {
                 batteryLevelReceiver.unregister();
-                locationManager.removeUpdates(PhoneLocationManager.this);
+                stopLocationUpdates();
+                if (passiveFixCount > 0 || skippedFixCount > 0) {
+                    logger.info("Recorded {} passive location fixes, skipped {} own location requests",
+                            passiveFixCount, skippedFixCount);
+                }
             });
             handler = null;
             handlerThread.quitSafely();
@@ -383,4 +638,210 @@ class PhoneLocationManager extends AbstractDeviceManager<PhoneLocationService, B
         this.frequency = -1;
         this.onBatteryLevelChanged(batteryLevelReceiver.getLevel(), batteryLevelReceiver.isPlugged());
     }
+
+    /**
+     * Set the rate profiles. The location update intervals are multiplied by the interval factor
+     * of the active profile. Only call from the main thread.
+     * @param nightStartHour local hour that the night profile starts.
+     * @param nightEndHour local hour that the night profile ends.
+     * @param hysteresis minimum time to keep a profile before switching to another.
+     * @param unit unit of the hysteresis.
+     * @param intervalFactors interval factors indexed by profile ordinal. A factor of zero
+     *                        disables location updates while the profile is active.
+     */
+    public void setRateProfiles(int nightStartHour, int nightEndHour, long hysteresis,
+            TimeUnit unit, float[] intervalFactors) {
+        synchronized (this) {
+            if (!Arrays.equals(profileIntervalFactors, intervalFactors)) {
+                profileIntervalFactors = intervalFactors.clone();
+                this.frequency = -1;
+                this.onBatteryLevelChanged(batteryLevelReceiver.getLevel(), batteryLevelReceiver.isPlugged());
+            }
+        }
+        rateProfileMonitor.setSchedule(nightStartHour, nightEndHour, hysteresis, unit);
+    }
+
+    private synchronized void setRateProfile(RateProfile profile) {
+        if (profile == rateProfile) {
+            return;
+        }
+        rateProfile = profile;
+        // reset intervals
+        this.frequency = -1;
+        this.onBatteryLevelChanged(batteryLevelReceiver.getLevel(), batteryLevelReceiver.isPlugged());
+    }
+
+    /**
+     * Set whether to back off the GPS interval while the device stays at one place. Once location
+     * fixes stay within given radius for the dwell time, the GPS interval is doubled each time the
+     * stay doubles in length, up to the maximum factor. Network fixes keep their interval, so
+     * that leaving the place is noticed, after which the normal GPS interval is restored. The
+     * backoff applies on top of the battery level and rate profile intervals.
+     * @param enabled whether to back off when stationary.
+     * @param radius radius of a stay point in meters.
+     * @param dwellSeconds time in seconds within the radius before the device is stationary.
+     * @param maximumFactor maximum factor to multiply the GPS interval with.
+     */
+    public synchronized void setStationaryBackoff(boolean enabled, float radius, int dwellSeconds,
+            int maximumFactor) {
+        if (isStationaryBackoff == enabled
+                && stationaryRadius == radius
+                && stationaryDwell == dwellSeconds
+                && stationaryMaxFactor == maximumFactor) {
+            return;
+        }
+        isStationaryBackoff = enabled;
+        stationaryRadius = radius;
+        stationaryDwell = dwellSeconds;
+        stationaryMaxFactor = maximumFactor;
+
+        if (enabled && radius > 0f && dwellSeconds > 0 && maximumFactor > 1) {
+            stayPointDetector = new StayPointDetector(radius,
+                    TimeUnit.SECONDS.toMillis(dwellSeconds), maximumFactor);
+        } else {
+            stayPointDetector = null;
+        }
+        setGpsBackoffFactor(1);
+    }
+
+    /**
+     * Set whether to adapt the GPS interval to the speed of the device. The interval is then
+     * chosen so that the device travels about given distance between fixes, within the minimum
+     * and maximum interval. It replaces the configured GPS interval, and is scaled by the same
+     * ratio at a reduced battery level. Rate profiles and stationary backoff apply on top of it.
+     * Network fixes keep their interval and are used to estimate the speed as well.
+     * @param enabled whether to adapt the GPS interval.
+     * @param distance target distance between fixes in meters.
+     * @param minInterval minimum GPS interval in seconds.
+     * @param maxInterval maximum GPS interval in seconds.
+     */
+    public synchronized void setAdaptiveInterval(boolean enabled, float distance, int minInterval,
+            int maxInterval) {
+        if (isAdaptive == enabled
+                && adaptiveDistance == distance
+                && adaptiveMinInterval == minInterval
+                && adaptiveMaxInterval == maxInterval) {
+            return;
+        }
+        isAdaptive = enabled;
+        adaptiveDistance = distance;
+        adaptiveMinInterval = minInterval;
+        adaptiveMaxInterval = maxInterval;
+
+        AdaptiveIntervalScheduler scheduler = null;
+        if (enabled && distance > 0f && minInterval > 0 && maxInterval >= minInterval) {
+            scheduler = new AdaptiveIntervalScheduler(distance, minInterval, maxInterval);
+        } else if (enabled) {
+            logger.warn("Invalid adaptive location interval configuration, using fixed intervals");
+        }
+        adaptiveScheduler = scheduler;
+        setAdaptiveGpsInterval(scheduler, scheduler != null ? scheduler.getInterval() : 0L);
+    }
+
+    /**
+     * Set the GPS interval computed by given scheduler, and apply it if it changed. Results of a
+     * scheduler that was replaced in the meantime are ignored.
+     */
+    private synchronized void setAdaptiveGpsInterval(AdaptiveIntervalScheduler scheduler, long interval) {
+        if (scheduler != adaptiveScheduler || interval == adaptiveGpsInterval) {
+            return;
+        }
+        if (interval > 0L) {
+            logger.info("Adapting GPS interval to {} seconds at a speed of {} m/s", interval,
+                    scheduler.getSpeed());
+        }
+        adaptiveGpsInterval = interval;
+        // reset intervals
+        this.frequency = -1;
+        this.onBatteryLevelChanged(batteryLevelReceiver.getLevel(), batteryLevelReceiver.isPlugged());
+    }
+
+    /** Set the factor to multiply the GPS interval with, and apply it if it changed. */
+    private synchronized void setGpsBackoffFactor(int factor) {
+        if (factor == gpsBackoffFactor) {
+            return;
+        }
+        if (factor > gpsBackoffFactor) {
+            logger.info("Device is stationary, backing off GPS interval by a factor {}", factor);
+        } else {
+            logger.info("Device is no longer stationary, restoring GPS interval");
+        }
+        gpsBackoffFactor = factor;
+        // reset intervals
+        this.frequency = -1;
+        this.onBatteryLevelChanged(batteryLevelReceiver.getLevel(), batteryLevelReceiver.isPlugged());
+    }
+
+    /**
+     * Requests single fixes of a provider. A request is skipped if a recent fix is available,
+     * and given up if no fix arrives within {@link #SINGLE_FIX_TIMEOUT_MILLIS}. Only used from
+     * the handler thread.
+     */
+    private class SingleFixListener implements LocationListener {
+        private final String provider;
+        private final boolean isGps;
+        private final Runnable timeout = this::cancel;
+
+        SingleFixListener(String provider) {
+            this.provider = provider;
+            this.isGps = LocationManager.GPS_PROVIDER.equals(provider);
+        }
+
+        /**
+         * Request a fix, unless a fix arrived less than half the given period ago.
+         * @param periodMillis period at which fixes are requested.
+         */
+        @SuppressLint("MissingPermission")
+        void request(long periodMillis) {
+            if (!isStarted || !locationManager.isProviderEnabled(provider)) {
+                return;
+            }
+            long lastFix = lastFixNanos[LocationProvider.GPS.ordinal()];
+            if (!isGps) {
+                for (long fix : lastFixNanos) {
+                    lastFix = Math.max(lastFix, fix);
+                }
+            }
+            if (lastFix > 0L && SystemClock.elapsedRealtimeNanos() - lastFix
+                    < TimeUnit.MILLISECONDS.toNanos(periodMillis) / 2) {
+                skippedFixCount++;
+                logger.debug("Skipping {} location request, a recent fix is available", provider);
+                return;
+            }
+            Handler localHandler = handler;
+            if (localHandler == null) {
+                return;
+            }
+            localHandler.removeCallbacks(timeout);
+            locationManager.requestSingleUpdate(provider, this, localHandler.getLooper());
+            localHandler.postDelayed(timeout, SINGLE_FIX_TIMEOUT_MILLIS);
+        }
+
+        /** Give up the pending request, if any. */
+        void cancel() {
+            locationManager.removeUpdates(this);
+            Handler localHandler = handler;
+            if (localHandler != null) {
+                localHandler.removeCallbacks(timeout);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Location location) {
+            Handler localHandler = handler;
+            if (localHandler != null) {
+                localHandler.removeCallbacks(timeout);
+            }
+            recordLocation(location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {}
+
+        @Override
+        public void onProviderEnabled(String provider) {}
+
+        @Override
+        public void onProviderDisabled(String provider) {}
+    }
 }
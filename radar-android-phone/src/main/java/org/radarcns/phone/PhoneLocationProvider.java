@@ -39,6 +39,18 @@ public class PhoneLocationProvider extends DeviceServiceProvider<BaseDeviceState
     private static final String PHONE_LOCATION_NETWORK_INTERVAL_REDUCED = "phone_location_network_interval_reduced";
     private static final String PHONE_LOCATION_BATTERY_LEVEL_REDUCED = "phone_location_battery_level_reduced";
     private static final String PHONE_LOCATION_BATTERY_LEVEL_MINIMUM = "phone_location_battery_level_minimum";
+    private static final String PHONE_LOCATION_PASSIVE = "phone_location_passive";
+    private static final String PHONE_LOCATION_PASSIVE_INTERVAL = "phone_location_passive_interval";
+    private static final String PHONE_LOCATION_STATIONARY = "phone_location_stationary";
+    private static final String PHONE_LOCATION_STATIONARY_RADIUS = "phone_location_stationary_radius";
+    private static final String PHONE_LOCATION_STATIONARY_DWELL = "phone_location_stationary_dwell";
+    private static final String PHONE_LOCATION_STATIONARY_MAX_FACTOR = "phone_location_stationary_max_factor";
+    private static final String PHONE_LOCATION_ADAPTIVE = "phone_location_adaptive";
+    private static final String PHONE_LOCATION_ADAPTIVE_DISTANCE = "phone_location_adaptive_distance";
+    private static final String PHONE_LOCATION_ADAPTIVE_MIN_INTERVAL = "phone_location_adaptive_min_interval";
+    private static final String PHONE_LOCATION_ADAPTIVE_MAX_INTERVAL = "phone_location_adaptive_max_interval";
+
+    static final String PHONE_LOCATION_PREFIX = "phone_location_";
 
     public static final String PREFIX = PhoneLocationProvider.class.getName() + '.';
     public static final String INTERVAL_GPS_KEY = PREFIX + PHONE_LOCATION_GPS_INTERVAL;
@@ -47,11 +59,28 @@ public class PhoneLocationProvider extends DeviceServiceProvider<BaseDeviceState
     public static final String INTERVAL_NETWORK_REDUCED_KEY = PREFIX + PHONE_LOCATION_NETWORK_INTERVAL_REDUCED;
     public static final String MINIMUM_BATTERY_LEVEL_KEY = PREFIX + PHONE_LOCATION_BATTERY_LEVEL_REDUCED;
     public static final String REDUCED_BATTERY_LEVEL_KEY = PREFIX + PHONE_LOCATION_BATTERY_LEVEL_MINIMUM;
+    public static final String PASSIVE_KEY = PREFIX + PHONE_LOCATION_PASSIVE;
+    public static final String PASSIVE_INTERVAL_KEY = PREFIX + PHONE_LOCATION_PASSIVE_INTERVAL;
+    public static final String STATIONARY_KEY = PREFIX + PHONE_LOCATION_STATIONARY;
+    public static final String STATIONARY_RADIUS_KEY = PREFIX + PHONE_LOCATION_STATIONARY_RADIUS;
+    public static final String STATIONARY_DWELL_KEY = PREFIX + PHONE_LOCATION_STATIONARY_DWELL;
+    public static final String STATIONARY_MAX_FACTOR_KEY = PREFIX + PHONE_LOCATION_STATIONARY_MAX_FACTOR;
+    public static final String ADAPTIVE_KEY = PREFIX + PHONE_LOCATION_ADAPTIVE;
+    public static final String ADAPTIVE_DISTANCE_KEY = PREFIX + PHONE_LOCATION_ADAPTIVE_DISTANCE;
+    public static final String ADAPTIVE_MIN_INTERVAL_KEY = PREFIX + PHONE_LOCATION_ADAPTIVE_MIN_INTERVAL;
+    public static final String ADAPTIVE_MAX_INTERVAL_KEY = PREFIX + PHONE_LOCATION_ADAPTIVE_MAX_INTERVAL;
 
     private static final int LOCATION_GPS_INTERVAL_DEFAULT = 15*60; // seconds
     private static final int LOCATION_GPS_INTERVAL_REDUCED_DEFAULT = 4 * LOCATION_GPS_INTERVAL_DEFAULT; // seconds
     private static final int LOCATION_NETWORK_INTERVAL_DEFAULT = 5*60; // seconds
     private static final int LOCATION_NETWORK_INTERVAL_REDUCED_DEFAULT = 4 * LOCATION_NETWORK_INTERVAL_DEFAULT; // seconds
+    private static final int LOCATION_PASSIVE_INTERVAL_DEFAULT = 60; // seconds
+    private static final float LOCATION_STATIONARY_RADIUS_DEFAULT = 100f; // meters
+    private static final int LOCATION_STATIONARY_DWELL_DEFAULT = 30*60; // seconds
+    private static final int LOCATION_STATIONARY_MAX_FACTOR_DEFAULT = 8;
+    private static final float LOCATION_ADAPTIVE_DISTANCE_DEFAULT = 500f; // meters
+    private static final int LOCATION_ADAPTIVE_MIN_INTERVAL_DEFAULT = 60; // seconds
+    private static final int LOCATION_ADAPTIVE_MAX_INTERVAL_DEFAULT = 60*60; // seconds
 
     private static final float MINIMUM_BATTERY_LEVEL_DEFAULT = 0.15f;
     private static final float REDUCED_BATTERY_LEVEL_DEFAULT = 0.3f;
@@ -82,6 +111,17 @@ public class PhoneLocationProvider extends DeviceServiceProvider<BaseDeviceState
         bundle.putInt(INTERVAL_NETWORK_REDUCED_KEY, config.getInt(PHONE_LOCATION_NETWORK_INTERVAL_REDUCED, LOCATION_NETWORK_INTERVAL_REDUCED_DEFAULT));
         bundle.putFloat(MINIMUM_BATTERY_LEVEL_KEY, config.getFloat(PHONE_LOCATION_BATTERY_LEVEL_REDUCED, REDUCED_BATTERY_LEVEL_DEFAULT));
         bundle.putFloat(REDUCED_BATTERY_LEVEL_KEY, config.getFloat(PHONE_LOCATION_BATTERY_LEVEL_MINIMUM, MINIMUM_BATTERY_LEVEL_DEFAULT));
+        bundle.putBoolean(PASSIVE_KEY, config.getBoolean(PHONE_LOCATION_PASSIVE, false));
+        bundle.putInt(PASSIVE_INTERVAL_KEY, config.getInt(PHONE_LOCATION_PASSIVE_INTERVAL, LOCATION_PASSIVE_INTERVAL_DEFAULT));
+        bundle.putBoolean(STATIONARY_KEY, config.getBoolean(PHONE_LOCATION_STATIONARY, false));
+        bundle.putFloat(STATIONARY_RADIUS_KEY, config.getFloat(PHONE_LOCATION_STATIONARY_RADIUS, LOCATION_STATIONARY_RADIUS_DEFAULT));
+        bundle.putInt(STATIONARY_DWELL_KEY, config.getInt(PHONE_LOCATION_STATIONARY_DWELL, LOCATION_STATIONARY_DWELL_DEFAULT));
+        bundle.putInt(STATIONARY_MAX_FACTOR_KEY, config.getInt(PHONE_LOCATION_STATIONARY_MAX_FACTOR, LOCATION_STATIONARY_MAX_FACTOR_DEFAULT));
+        bundle.putBoolean(ADAPTIVE_KEY, config.getBoolean(PHONE_LOCATION_ADAPTIVE, false));
+        bundle.putFloat(ADAPTIVE_DISTANCE_KEY, config.getFloat(PHONE_LOCATION_ADAPTIVE_DISTANCE, LOCATION_ADAPTIVE_DISTANCE_DEFAULT));
+        bundle.putInt(ADAPTIVE_MIN_INTERVAL_KEY, config.getInt(PHONE_LOCATION_ADAPTIVE_MIN_INTERVAL, LOCATION_ADAPTIVE_MIN_INTERVAL_DEFAULT));
+        bundle.putInt(ADAPTIVE_MAX_INTERVAL_KEY, config.getInt(PHONE_LOCATION_ADAPTIVE_MAX_INTERVAL, LOCATION_ADAPTIVE_MAX_INTERVAL_DEFAULT));
+        RateProfile.configure(bundle, config, PHONE_LOCATION_PREFIX);
     }
 
     @NonNull
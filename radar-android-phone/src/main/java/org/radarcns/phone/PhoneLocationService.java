@@ -23,12 +23,25 @@ import org.radarcns.android.device.BaseDeviceState;
 import org.radarcns.android.device.DeviceManager;
 import org.radarcns.android.device.DeviceService;
 
+import java.util.concurrent.TimeUnit;
+
+import static org.radarcns.phone.PhoneLocationProvider.ADAPTIVE_DISTANCE_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.ADAPTIVE_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.ADAPTIVE_MAX_INTERVAL_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.ADAPTIVE_MIN_INTERVAL_KEY;
 import static org.radarcns.phone.PhoneLocationProvider.INTERVAL_GPS_KEY;
 import static org.radarcns.phone.PhoneLocationProvider.INTERVAL_GPS_REDUCED_KEY;
 import static org.radarcns.phone.PhoneLocationProvider.INTERVAL_NETWORK_KEY;
 import static org.radarcns.phone.PhoneLocationProvider.INTERVAL_NETWORK_REDUCED_KEY;
 import static org.radarcns.phone.PhoneLocationProvider.MINIMUM_BATTERY_LEVEL_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.PASSIVE_INTERVAL_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.PASSIVE_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.PHONE_LOCATION_PREFIX;
 import static org.radarcns.phone.PhoneLocationProvider.REDUCED_BATTERY_LEVEL_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.STATIONARY_DWELL_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.STATIONARY_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.STATIONARY_MAX_FACTOR_KEY;
+import static org.radarcns.phone.PhoneLocationProvider.STATIONARY_RADIUS_KEY;
 
 public class PhoneLocationService extends DeviceService<BaseDeviceState> {
     private int gpsInterval;
@@ -37,6 +50,20 @@ public class PhoneLocationService extends DeviceService<BaseDeviceState> {
     private int networkIntervalReduced;
     private float batteryLevelMinimum;
     private float batteryLevelReduced;
+    private boolean passive;
+    private int passiveInterval;
+    private boolean stationary;
+    private float stationaryRadius;
+    private int stationaryDwell;
+    private int stationaryMaxFactor;
+    private boolean adaptive;
+    private float adaptiveDistance;
+    private int adaptiveMinInterval;
+    private int adaptiveMaxInterval;
+    private int profileNightStartHour;
+    private int profileNightEndHour;
+    private int profileHysteresis;
+    private float[] profileIntervalFactors;
 
     @Override
     protected PhoneLocationManager createDeviceManager() {
@@ -54,6 +81,11 @@ public class PhoneLocationService extends DeviceService<BaseDeviceState> {
     private void configureManager(PhoneLocationManager manager) {
         manager.setBatteryLevels(batteryLevelMinimum, batteryLevelReduced);
         manager.setIntervals(gpsInterval, gpsIntervalReduced, networkInterval, networkIntervalReduced);
+        manager.setPassive(passive, passiveInterval);
+        manager.setStationaryBackoff(stationary, stationaryRadius, stationaryDwell, stationaryMaxFactor);
+        manager.setAdaptiveInterval(adaptive, adaptiveDistance, adaptiveMinInterval, adaptiveMaxInterval);
+        manager.setRateProfiles(profileNightStartHour, profileNightEndHour, profileHysteresis,
+                TimeUnit.SECONDS, profileIntervalFactors);
     }
 
     @Override
@@ -65,6 +97,20 @@ public class PhoneLocationService extends DeviceService<BaseDeviceState> {
         networkIntervalReduced = bundle.getInt(INTERVAL_NETWORK_REDUCED_KEY);
         batteryLevelMinimum = bundle.getFloat(MINIMUM_BATTERY_LEVEL_KEY);
         batteryLevelReduced = bundle.getFloat(REDUCED_BATTERY_LEVEL_KEY);
+        passive = bundle.getBoolean(PASSIVE_KEY);
+        passiveInterval = bundle.getInt(PASSIVE_INTERVAL_KEY);
+        stationary = bundle.getBoolean(STATIONARY_KEY);
+        stationaryRadius = bundle.getFloat(STATIONARY_RADIUS_KEY);
+        stationaryDwell = bundle.getInt(STATIONARY_DWELL_KEY);
+        stationaryMaxFactor = bundle.getInt(STATIONARY_MAX_FACTOR_KEY);
+        adaptive = bundle.getBoolean(ADAPTIVE_KEY);
+        adaptiveDistance = bundle.getFloat(ADAPTIVE_DISTANCE_KEY);
+        adaptiveMinInterval = bundle.getInt(ADAPTIVE_MIN_INTERVAL_KEY);
+        adaptiveMaxInterval = bundle.getInt(ADAPTIVE_MAX_INTERVAL_KEY);
+        profileNightStartHour = bundle.getInt(RateProfile.PHONE_PROFILE_NIGHT_START_HOUR);
+        profileNightEndHour = bundle.getInt(RateProfile.PHONE_PROFILE_NIGHT_END_HOUR);
+        profileHysteresis = bundle.getInt(RateProfile.PHONE_PROFILE_HYSTERESIS_SECONDS);
+        profileIntervalFactors = RateProfile.intervalFactors(bundle, PHONE_LOCATION_PREFIX);
         DeviceManager manager = getDeviceManager();
         if (manager != null) {
             configureManager((PhoneLocationManager) getDeviceManager());
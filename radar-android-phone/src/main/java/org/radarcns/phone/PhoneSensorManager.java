@@ -17,17 +17,26 @@
 package org.radarcns.phone;
 
 import android.annotation.SuppressLint;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
@@ -48,9 +57,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static android.content.Context.ALARM_SERVICE;
 import static android.content.Context.POWER_SERVICE;
 import static android.os.BatteryManager.BATTERY_STATUS_CHARGING;
 import static android.os.BatteryManager.BATTERY_STATUS_DISCHARGING;
@@ -58,30 +72,15 @@ import static android.os.BatteryManager.BATTERY_STATUS_FULL;
 import static android.os.BatteryManager.BATTERY_STATUS_NOT_CHARGING;
 import static android.os.BatteryManager.BATTERY_STATUS_UNKNOWN;
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BATCH_LATENCY_DEFAULT;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BATTERY_LEVEL_CHANGE_DEFAULT;
 import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_INTERVAL_DEFAULT;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT;
 
-class PhoneSensorManager extends AbstractDeviceManager<PhoneSensorService, PhoneState> implements SensorEventListener {
+class PhoneSensorManager extends AbstractDeviceManager<PhoneSensorService, PhoneState> implements SensorEventListener2 {
     private static final Logger logger = LoggerFactory.getLogger(PhoneSensorManager.class);
 
-    // Sensors to register, together with the name of the sensor
-    private static final int[] SENSOR_TYPES_TO_REGISTER = {
-        Sensor.TYPE_ACCELEROMETER,
-        Sensor.TYPE_LIGHT,
-        Sensor.TYPE_MAGNETIC_FIELD,
-        Sensor.TYPE_GYROSCOPE,
-        Sensor.TYPE_STEP_COUNTER
-    };
-
-    // Names of the sensor (for warning message if unable to register)
-    private static final SparseArray<String> SENSOR_NAMES = new SparseArray<>(5);
-    static {
-        SENSOR_NAMES.append(Sensor.TYPE_ACCELEROMETER, Sensor.STRING_TYPE_ACCELEROMETER);
-        SENSOR_NAMES.append(Sensor.TYPE_LIGHT, Sensor.STRING_TYPE_LIGHT);
-        SENSOR_NAMES.append(Sensor.TYPE_MAGNETIC_FIELD, Sensor.STRING_TYPE_MAGNETIC_FIELD);
-        SENSOR_NAMES.append(Sensor.TYPE_GYROSCOPE, Sensor.STRING_TYPE_GYROSCOPE);
-        SENSOR_NAMES.append(Sensor.TYPE_STEP_COUNTER, Sensor.STRING_TYPE_STEP_COUNTER);
-    }
-
     private static final SparseArray<BatteryStatus> BATTERY_TYPES = new SparseArray<>(5);
     static {
         BATTERY_TYPES.append(BATTERY_STATUS_UNKNOWN, BatteryStatus.UNKNOWN);
@@ -90,48 +89,285 @@ class PhoneSensorManager extends AbstractDeviceManager<PhoneSensorService, Phone
         BATTERY_TYPES.append(BATTERY_STATUS_NOT_CHARGING, BatteryStatus.NOT_CHARGING);
         BATTERY_TYPES.append(BATTERY_STATUS_FULL, BatteryStatus.FULL);
     }
+    // float rounding margin when comparing battery level changes, less than one step of a battery scale
+    private static final float BATTERY_LEVEL_CHANGE_TOLERANCE = 1e-4f;
 
     private static final String ACTIVITY_LAUNCH_WAKE = "org.radarcns.phone.PhoneSensorManager.ACTIVITY_LAUNCH_WAKE";
     private static final int REQUEST_CODE_PENDING_INTENT = 482480668;
+    private static final String ACTION_SENSOR_BURST = "org.radarcns.phone.PhoneSensorManager.ACTION_SENSOR_BURST";
+    private static final int REQUEST_CODE_SENSOR_BURST = 482480669;
+    private static final int REQUEST_CODE_RATE_PROFILE = 482480670;
+    private static final long FLUSH_TIMEOUT_MILLIS = 1000L;
+    private static final long SENSOR_BUFFER_DRAIN_INTERVAL_MILLIS = 1000L;
+    private static final long SENSOR_QUEUE_BLOCK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MOTION_GATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MOTION_GATE_PARKED_DELAY_MICROS = 1_000_000;
+    private static final int IMU_RESAMPLE_MAX_GAP_PERIODS = 2;
+    private static final int IMU_RESAMPLE_BUFFER_CAPACITY = 1024;
+    private static final int DECIMATION_MAX_GAP_INTERVALS = 2;
+    private static final long DECIMATION_MAX_HOLD_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final long ORIENTATION_FILTER_TIME_CONSTANT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final String STEP_COUNT_LAST = "step_count.last";
+    private static final String STEP_COUNT_BOOT_COUNT = "step_count.boot_count";
 
-    private final AvroTopic<ObservationKey, PhoneAcceleration> accelerationTopic;
-    private final AvroTopic<ObservationKey, PhoneLight> lightTopic;
-    private final AvroTopic<ObservationKey, PhoneStepCount> stepCountTopic;
-    private final AvroTopic<ObservationKey, PhoneGyroscope> gyroscopeTopic;
-    private final AvroTopic<ObservationKey, PhoneMagneticField> magneticFieldTopic;
     private final AvroTopic<ObservationKey, PhoneBatteryLevel> batteryTopic;
     private final SparseIntArray sensorDelays;
+    private final SparseIntArray sensorBatchLatencies;
+
+    // Registry of supported sensors. Each sensor type is bound to a single handler.
+    private final SensorHandler[] sensorHandlers;
+    // Sensor handlers indexed by sensor type, for dispatching sensor events.
+    private final SensorHandler[] handlersByType;
+    private final BufferedSensorHandler accelerationHandler;
+    // Acceleration, gyroscope and magnetic field handlers, in resampler stream order
+    private final BufferedSensorHandler[] imuHandlers;
+    private ImuResampler imuResampler;
+    // Longest sampling period of the inertial sensors while they are sampled, in nanoseconds
+    private volatile long imuSamplingPeriod;
 
+    // Orientation, computed on the sensor thread
+    private volatile OrientationFilter orientationFilter;
+    private volatile long orientationInterval;
+    private long nextOrientationTime;
+    private long orientationCount;
+    private final float[] orientation = new float[4];
+    private final float[] orientationMatrix = new float[9];
+    private final float[] orientationAngles = new float[3];
+
+    // Sensor events are delivered on the sensor thread, which only queues their samples. Records
+    // are created and sent on the record thread, so a slow send does not delay sensor delivery.
     private final HandlerThread mHandlerThread;
+    private final HandlerThread mRecordThread;
+    private int sensorQueueCapacity = PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT;
+    private SensorSampleQueue.OverflowPolicy sensorQueuePolicy = SensorSampleQueue.OverflowPolicy.parse(PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT);
     private final SensorManager sensorManager;
     private final OfflineProcessor batteryProcessor;
-    private int lastStepCount = -1;
-    private PowerManager.WakeLock wakeLock;
+    private final BroadcastReceiver batteryReceiver;
+    private final Object batteryLock = new Object();
+    private boolean isBatteryReceiverRegistered;
+    // Last sent battery status, guarded by batteryLock
+    private float sentBatteryLevel = Float.NaN;
+    private boolean sentBatteryPlugged;
+    private BatteryStatus sentBatteryStatus;
+    private long sentBatteryTime;
+    private long batteryHeartbeatMillis;
+    private float batteryLevelChange = PHONE_SENSOR_BATTERY_LEVEL_CHANGE_DEFAULT;
+    private final Runnable drainRunnable;
+    /** Clock of the record thread. */
+    private final SensorClock sensorClock;
+    /** Clock of the sensor thread, since a clock is not thread-safe. */
+    private final SensorClock orientationClock;
+    private volatile boolean isDrainScheduled;
+    private volatile boolean isDrainRequested;
+    private double drainTime;
+    // Flush of batched sensors: continuations run on the main thread once the flush completes
+    private final AtomicInteger pendingFlushCount = new AtomicInteger();
+    private volatile int flushGeneration;
+    private final List<Runnable> flushContinuations = new ArrayList<>();
+    private final Runnable flushTimeout;
+    // Set when closing starts, so no sensors or triggers are registered during the final flush
+    private volatile boolean isClosing;
+    private final PowerManager.WakeLock wakeLock;
+    private final PowerManager.WakeLock drainWakeLock;
+    private volatile boolean isWakeLockFree;
+
+    // Motion gating: the gate runs on the record thread, parking is applied on the main thread
+    private final Handler mainHandler;
+    private final MotionGate.Listener motionGateListener;
+    private MotionGate motionGate;
+    private long motionGateStillDurationNanos;
+    private float motionGateThreshold;
+    private volatile boolean isParked;
+    private double parkTime;
+    private final Sensor significantMotionSensor;
+
+    // Burst sampling of motion sensors, only accessed from the main thread
+    private final AlarmManager alarmManager;
+    private final PendingIntent burstIntent;
+    private final BroadcastReceiver burstReceiver;
+    private boolean isBurstReceiverRegistered;
+    private long burstPeriodMillis;
+    private long burstDurationMillis;
+    private int burstDelayMillis;
+    private volatile boolean isInBurst;
+    private long burstId;
+    private final TriggerEventListener significantMotionListener;
+    private boolean isSignificantMotionRequested;
+
+    // Rate profiles, selected on the main thread
+    private final RateProfileMonitor rateProfileMonitor;
+    private volatile float[] profileIntervalFactors;
+    private volatile RateProfile rateProfile = RateProfile.DEFAULT;
     private Handler mHandler;
+    private Handler mRecordHandler;
 
     public PhoneSensorManager(PhoneSensorService context, int batteryInterval,
                               TimeUnit batteryIntervalUnit) {
         super(context);
 
-        accelerationTopic = createTopic("android_phone_acceleration", PhoneAcceleration.class);
+        AvroTopic<ObservationKey, PhoneAcceleration> accelerationTopic = createTopic("android_phone_acceleration", PhoneAcceleration.class);
         batteryTopic = createTopic("android_phone_battery_level", PhoneBatteryLevel.class);
-        lightTopic = createTopic("android_phone_light", PhoneLight.class);
-        stepCountTopic = createTopic("android_phone_step_count", PhoneStepCount.class);
-        gyroscopeTopic = createTopic("android_phone_gyroscope", PhoneGyroscope.class);
-        magneticFieldTopic = createTopic("android_phone_magnetic_field", PhoneMagneticField.class);
+        AvroTopic<ObservationKey, PhoneLight> lightTopic = createTopic("android_phone_light", PhoneLight.class);
+        AvroTopic<ObservationKey, PhoneStepCount> stepCountTopic = createTopic("android_phone_step_count", PhoneStepCount.class);
+        AvroTopic<ObservationKey, PhoneGyroscope> gyroscopeTopic = createTopic("android_phone_gyroscope", PhoneGyroscope.class);
+        AvroTopic<ObservationKey, PhoneMagneticField> magneticFieldTopic = createTopic("android_phone_magnetic_field", PhoneMagneticField.class);
+        AvroTopic<ObservationKey, PhoneAcceleration> accelerationWindowTopic = createTopic("android_phone_acceleration_window_mean", PhoneAcceleration.class);
+        AvroTopic<ObservationKey, PhoneLight> lightWindowTopic = createTopic("android_phone_light_window_mean", PhoneLight.class);
+        AvroTopic<ObservationKey, PhoneGyroscope> gyroscopeWindowTopic = createTopic("android_phone_gyroscope_window_mean", PhoneGyroscope.class);
+        AvroTopic<ObservationKey, PhoneMagneticField> magneticFieldWindowTopic = createTopic("android_phone_magnetic_field_window_mean", PhoneMagneticField.class);
 
+        sensorManager = (SensorManager) getService().getSystemService(Context.SENSOR_SERVICE);
         this.sensorDelays = new SparseIntArray();
+        this.sensorBatchLatencies = new SparseIntArray();
+        sensorClock = new SensorClock();
+        orientationClock = new SensorClock();
+
+        // Aggregated windows are sent as a single record with the mean value, at the window start,
+        // on a separate topic so they cannot be mistaken for raw samples
+        // x,y,z are in m/s2, sent in g
+        accelerationHandler = new BufferedSensorHandler(Sensor.TYPE_ACCELEROMETER,
+                Sensor.STRING_TYPE_ACCELEROMETER, 3, SensorManager.GRAVITY_EARTH,
+                (time, x, y, z) -> send(accelerationTopic, new PhoneAcceleration(
+                        sensorClock.toEpochSeconds(time), drainTime, x, y, z)),
+                (start, w) -> send(accelerationWindowTopic, new PhoneAcceleration(
+                        sensorClock.toEpochSeconds(start), drainTime,
+                        (float) w.getMean(0), (float) w.getMean(1), (float) w.getMean(2)))) {
+            @Override
+            void onSample(float x, float y, float z) {
+                getState().setAcceleration(x, y, z);
+            }
+        };
+        List<SensorHandler> handlers = new ArrayList<>(Arrays.asList(
+                accelerationHandler,
+                new BufferedSensorHandler(Sensor.TYPE_LIGHT, Sensor.STRING_TYPE_LIGHT, 1, 1f,
+                        (time, x, y, z) -> send(lightTopic, new PhoneLight(
+                                sensorClock.toEpochSeconds(time), drainTime, x)),
+                        (start, w) -> send(lightWindowTopic, new PhoneLight(
+                                sensorClock.toEpochSeconds(start), drainTime, (float) w.getMean(0)))) {
+                    @Override
+                    void onSample(float x, float y, float z) {
+                        getState().setLight(x);
+                    }
+                },
+                // Magnetic field in microTesla
+                new BufferedSensorHandler(Sensor.TYPE_MAGNETIC_FIELD,
+                        Sensor.STRING_TYPE_MAGNETIC_FIELD, 3, 1f,
+                        (time, x, y, z) -> send(magneticFieldTopic, new PhoneMagneticField(
+                                sensorClock.toEpochSeconds(time), drainTime, x, y, z)),
+                        (start, w) -> send(magneticFieldWindowTopic, new PhoneMagneticField(
+                                sensorClock.toEpochSeconds(start), drainTime,
+                                (float) w.getMean(0), (float) w.getMean(1), (float) w.getMean(2)))),
+                // Not normalized axis of rotation in rad/s
+                new BufferedSensorHandler(Sensor.TYPE_GYROSCOPE, Sensor.STRING_TYPE_GYROSCOPE, 3, 1f,
+                        (time, x, y, z) -> send(gyroscopeTopic, new PhoneGyroscope(
+                                sensorClock.toEpochSeconds(time), drainTime, x, y, z)),
+                        (start, w) -> send(gyroscopeWindowTopic, new PhoneGyroscope(
+                                sensorClock.toEpochSeconds(start), drainTime,
+                                (float) w.getMean(0), (float) w.getMean(1), (float) w.getMean(2)))),
+                new StepCounterHandler(stepCountTopic),
+                new StepDetectorHandler(stepCountTopic)));
+        // without a rotation vector sensor, the orientation is computed from the motion sensors
+        if (sensorManager != null && sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR) != null) {
+            handlers.add(new OrientationHandler());
+        }
+        sensorHandlers = handlers.toArray(new SensorHandler[0]);
+        handlersByType = indexByType(sensorHandlers);
+        imuHandlers = new BufferedSensorHandler[] {
+                accelerationHandler,
+                (BufferedSensorHandler) handlersByType[Sensor.TYPE_GYROSCOPE],
+                (BufferedSensorHandler) handlersByType[Sensor.TYPE_MAGNETIC_FIELD],
+        };
+
+        PowerManager powerManager = (PowerManager) getService().getSystemService(POWER_SERVICE);
+        if (powerManager != null) {
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "org.radarcns.phone:PhoneSensorManager");
+            drainWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "org.radarcns.phone:PhoneSensorManager.drain");
+            drainWakeLock.setReferenceCounted(false);
+        } else {
+            wakeLock = null;
+            drainWakeLock = null;
+        }
+
+        drainRunnable = () -> {
+            isDrainScheduled = false;
+            isDrainRequested = false;
+            drainBuffers();
+            if (drainWakeLock != null && drainWakeLock.isHeld()) {
+                drainWakeLock.release();
+            }
+        };
+
         mHandlerThread = new HandlerThread("Phone sensors", THREAD_PRIORITY_BACKGROUND);
+        mRecordThread = new HandlerThread("Phone sensor records", THREAD_PRIORITY_BACKGROUND);
 
+        // Battery changes are received while the device is awake anyway. The poller only sends a
+        // heartbeat if nothing changed, so it does not need to wake the device.
+        batteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                updateBatteryStatus(intent, false);
+            }
+        };
+        batteryHeartbeatMillis = batteryIntervalUnit.toMillis(batteryInterval);
         batteryProcessor = new OfflineProcessor.Builder(context, this::processBatteryStatus)
                 .requestIdentifier(REQUEST_CODE_PENDING_INTENT, ACTIVITY_LAUNCH_WAKE)
                 .interval(batteryInterval, batteryIntervalUnit)
-                .wake(true)
+                .wake(false)
                 .build();
 
         setName(android.os.Build.MODEL);
 
-        sensorManager = (SensorManager) getService().getSystemService(Context.SENSOR_SERVICE);
+        mainHandler = new Handler(Looper.getMainLooper());
+        flushTimeout = () -> {
+            logger.warn("Timed out flushing batched sensor events");
+            completeFlush(flushGeneration);
+        };
+        motionGateListener = new MotionGate.Listener() {
+            @Override
+            public void onPark(long time) {
+                double parkTime = sensorClock.toEpochSeconds(time);
+                mainHandler.post(() -> setParked(true, parkTime));
+            }
+
+            @Override
+            public void onResume(long time) {
+                double resumeTime = sensorClock.toEpochSeconds(time);
+                mainHandler.post(() -> setParked(false, resumeTime));
+            }
+        };
+        significantMotionListener = new TriggerEventListener() {
+            @Override
+            public void onTrigger(TriggerEvent event) {
+                isSignificantMotionRequested = false;
+                runOnRecordThread(() -> {
+                    if (motionGate != null) {
+                        motionGate.onMotion(event.timestamp);
+                    }
+                });
+            }
+        };
+
+        alarmManager = (AlarmManager) getService().getSystemService(ALARM_SERVICE);
+        Intent burstAction = new Intent(ACTION_SENSOR_BURST).setPackage(getService().getPackageName());
+        burstIntent = PendingIntent.getBroadcast(getService(), REQUEST_CODE_SENSOR_BURST,
+                burstAction, PendingIntent.FLAG_UPDATE_CURRENT);
+        burstReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                updateBurst();
+            }
+        };
+
+        profileIntervalFactors = new float[RateProfile.values().length];
+        Arrays.fill(profileIntervalFactors, 1f);
+        rateProfileMonitor = new RateProfileMonitor(getService(), REQUEST_CODE_RATE_PROFILE,
+                this::setRateProfile);
+
+        significantMotionSensor = sensorManager != null
+                ? sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION)
+                : null;
         if (sensorManager == null) {
             updateStatus(DeviceStatusListener.Status.DISCONNECTED);
         } else {
@@ -139,159 +375,843 @@ class PhoneSensorManager extends AbstractDeviceManager<PhoneSensorService, Phone
         }
     }
 
+    private static SensorHandler[] indexByType(SensorHandler[] handlers) {
+        int maxType = 0;
+        for (SensorHandler handler : handlers) {
+            maxType = Math.max(maxType, handler.type);
+        }
+        SensorHandler[] result = new SensorHandler[maxType + 1];
+        for (SensorHandler handler : handlers) {
+            result[handler.type] = handler;
+        }
+        return result;
+    }
+
     @SuppressLint("WakelockTimeout")
     @Override
     public void start(@NonNull final Set<String> acceptableIds) {
-        PowerManager powerManager = (PowerManager) getService().getSystemService(POWER_SERVICE);
-        if (powerManager != null) {
-            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
-                    "org.radarcns.phone:PhoneSensorManager");
+        if (wakeLock != null && !isWakeLockFree) {
             wakeLock.acquire();
         }
 
+        mRecordThread.start();
         mHandlerThread.start();
-        mHandler = new Handler(mHandlerThread.getLooper());
+        synchronized (this) {
+            for (SensorHandler handler : sensorHandlers) {
+                handler.createQueue(sensorQueueCapacity, sensorQueuePolicy);
+            }
+            mRecordHandler = new Handler(mRecordThread.getLooper());
+            mHandler = new Handler(mHandlerThread.getLooper());
+        }
 
+        getService().registerReceiver(burstReceiver, new IntentFilter(ACTION_SENSOR_BURST));
+        isBurstReceiverRegistered = true;
+        updateBurst();
+        rateProfileMonitor.start();
+        rateProfile = rateProfileMonitor.getProfile();
         registerSensors();
 
+        synchronized (batteryLock) {
+            getService().registerReceiver(batteryReceiver,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, mRecordHandler);
+            isBatteryReceiverRegistered = true;
+        }
         batteryProcessor.start();
         batteryProcessor.trigger();
 
         updateStatus(DeviceStatusListener.Status.CONNECTED);
     }
 
-    public void setSensorDelays(SparseIntArray sensorDelays) {
-        if (this.sensorDelays.equals(sensorDelays)) {
+    /**
+     * Set the sampling delays and hardware batching latencies of the sensors. If the sensors are
+     * already registered, only sensors of which the delay or latency changed are registered
+     * again, so the other sensors continue without interruption.
+     * @param sensorDelays sampling delay in milliseconds per sensor type
+     * @param sensorBatchLatencies maximum report latency in milliseconds per sensor type. If zero,
+     *                             events are reported as soon as they are available.
+     */
+    public void setSensorDelays(SparseIntArray sensorDelays, SparseIntArray sensorBatchLatencies) {
+        copySparseIntArray(sensorDelays, this.sensorDelays);
+        copySparseIntArray(sensorBatchLatencies, this.sensorBatchLatencies);
+        if (getState().getStatus() != DeviceStatusListener.Status.CONNECTED) {
             return;
         }
+        updateRegistrations();
+    }
 
-        this.sensorDelays.clear();
-        for (int i = 0; i < sensorDelays.size(); i++) {
-            this.sensorDelays.put(sensorDelays.keyAt(i), sensorDelays.valueAt(i));
+    /**
+     * Update the registration of all sensors. Batched sensors are flushed first if any of them
+     * needs to be registered again, in which case the registrations are updated once the flush
+     * completes. Nothing is registered once the manager is closing. Only call from the main
+     * thread.
+     */
+    private void updateRegistrations() {
+        if (isClosing) {
+            return;
         }
-        if (getState().getStatus() == DeviceStatusListener.Status.CONNECTED) {
-            sensorManager.unregisterListener(this);
-            registerSensors();
+        boolean needsFlush = false;
+        for (SensorHandler handler : sensorHandlers) {
+            if (handler.registeredLatency > 0
+                    && (handler.registeredDelay != configuredDelay(handler)
+                    || handler.registeredLatency != configuredLatency(handler, handler.sensor))) {
+                needsFlush = true;
+                break;
+            }
+        }
+        if (needsFlush) {
+            flushSensors(this::applyRegistrations);
+        } else {
+            applyRegistrations();
         }
     }
 
-    public final void setBatteryUpdateInterval(final long period, TimeUnit batteryIntervalUnit) {
-        batteryProcessor.setInterval(period, batteryIntervalUnit);
+    /** Register each sensor with its configured delay and latency. */
+    private void applyRegistrations() {
+        if (isClosing) {
+            return;
+        }
+        for (SensorHandler handler : sensorHandlers) {
+            updateRegistration(handler);
+        }
+        updateImuSamplingPeriod();
     }
 
     /**
-     * Register all sensors supplied in SENSOR_TYPES_TO_REGISTER constant.
+     * Update the longest sampling period of the inertial sensors while they are sampled, which
+     * limits the gaps that the resampler interpolates over. Samples of a parked sensor, or
+     * between bursts, are further apart, so they are not interpolated onto the grid.
      */
-     private void registerSensors() {
-        // At time of writing this is: Accelerometer, Light, Gyroscope, Magnetic Field and Step Counter
-        for (int sensorType : SENSOR_TYPES_TO_REGISTER) {
-            Sensor sensor = sensorManager.getDefaultSensor(sensorType);
-            if (sensor != null) {
-                // delay from milliseconds to microseconds
-                int delay = (int) TimeUnit.MILLISECONDS.toMicros(sensorDelays.get(sensorType, PHONE_SENSOR_INTERVAL_DEFAULT));
-                if (delay > 0) {
-                    synchronized (this) {
-                        if (mHandler != null) {
-                            sensorManager.registerListener(this, sensor, delay, mHandler);
-                        }
-                    }
+    private void updateImuSamplingPeriod() {
+        float factor = profileIntervalFactors[rateProfile.ordinal()];
+        long period = 0;
+        for (BufferedSensorHandler handler : imuHandlers) {
+            long delay = burstPeriodMillis > 0 ? burstDelayMillis
+                    : Math.round(sensorDelays.get(handler.type, handler.defaultDelay()) * factor);
+            period = Math.max(period, TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+        if (period == imuSamplingPeriod) {
+            return;
+        }
+        imuSamplingPeriod = period;
+        runOnRecordThread(() -> {
+            if (imuResampler != null) {
+                imuResampler.setMaxGap(imuResampleMaxGap(imuResampler.getInterval()));
+            }
+        });
+    }
+
+    /** Longest gap between samples that the resampler interpolates over, in nanoseconds. */
+    private long imuResampleMaxGap(long interval) {
+        return IMU_RESAMPLE_MAX_GAP_PERIODS * Math.max(interval, imuSamplingPeriod);
+    }
+
+    /**
+     * Set whether to park the accelerometer, gyroscope and magnetometer while the phone is
+     * stationary. The phone is stationary if the standard deviation of the acceleration magnitude
+     * stays below a threshold. While parked, motion is detected with the significant motion
+     * sensor if it can be requested, or otherwise with the accelerometer at a low rate.
+     * @param enabled whether to enable motion gating.
+     * @param stillDuration time the phone must be stationary before parking.
+     * @param unit unit of the still duration.
+     * @param threshold standard deviation of the acceleration magnitude, in g, below which the
+     *                  phone is considered stationary.
+     */
+    public void setMotionGating(boolean enabled, long stillDuration, TimeUnit unit, float threshold) {
+        long stillDurationNanos = unit.toNanos(stillDuration);
+        runOnRecordThread(() -> {
+            if (enabled == (motionGate != null)
+                    && (!enabled || (stillDurationNanos == motionGateStillDurationNanos
+                    && threshold == motionGateThreshold))) {
+                return;
+            }
+            accelerationHandler.removeTap(motionGate);
+            motionGateStillDurationNanos = stillDurationNanos;
+            motionGateThreshold = threshold;
+            motionGate = enabled
+                    ? new MotionGate(MOTION_GATE_WINDOW_NANOS, threshold, stillDurationNanos, motionGateListener)
+                    : null;
+            accelerationHandler.addTap(motionGate);
+            // a new gate starts active
+            double now = System.currentTimeMillis() / 1000d;
+            mainHandler.post(() -> setParked(false, now));
+        });
+    }
+
+    /**
+     * Park or resume the motion-gated sensors. Only call from the main thread. The start and end
+     * of each parked period are logged, to mark the gap in the motion sensor data.
+     * @param parked whether to park the sensors.
+     * @param time time of the state change in seconds since the Unix epoch.
+     */
+    private void setParked(boolean parked, double time) {
+        if (isParked == parked) {
+            return;
+        }
+        isParked = parked;
+        if (parked) {
+            parkTime = time;
+            logger.info("Phone is stationary, parking motion sensors from {}", time);
+        } else {
+            logger.info("Phone moved, resuming motion sensors; motion sensor gap from {} to {}",
+                    parkTime, time);
+        }
+        if (isClosing || getState().getStatus() != DeviceStatusListener.Status.CONNECTED) {
+            return;
+        }
+        if (significantMotionSensor != null && parked != isSignificantMotionRequested) {
+            if (parked) {
+                isSignificantMotionRequested = sensorManager.requestTriggerSensor(
+                        significantMotionListener, significantMotionSensor);
+                if (!isSignificantMotionRequested) {
+                    logger.warn("Cannot request significant motion trigger, detecting motion with the accelerometer");
                 }
             } else {
-                logger.warn("The sensor '{}' could not be found", SENSOR_NAMES.get(sensorType,"unknown"));
+                sensorManager.cancelTriggerSensor(significantMotionListener, significantMotionSensor);
+                isSignificantMotionRequested = false;
             }
         }
+        // the accelerometer detects motion if there is no significant motion trigger
+        updateRegistrations();
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        switch (event.sensor.getType()) {
-            case Sensor.TYPE_ACCELEROMETER:
-                processAcceleration(event);
-                break;
-            case Sensor.TYPE_LIGHT:
-                processLight(event);
-                break;
-            case Sensor.TYPE_GYROSCOPE:
-                processGyroscope(event);
-                break;
-            case Sensor.TYPE_MAGNETIC_FIELD:
-                processMagneticField(event);
-                break;
-            case Sensor.TYPE_STEP_COUNTER:
-                processStep(event);
-                break;
-            default:
-                logger.debug("Phone registered unknown sensor change: '{}'", event.sensor.getType());
+    /**
+     * Set a burst sampling schedule for the accelerometer, gyroscope and magnetometer. Instead
+     * of sampling continuously, these sensors are then only sampled during a short burst at the
+     * start of each period. Periods are aligned to the wall clock, and bursts are started and
+     * stopped with exact alarms. Only call from the main thread.
+     * @param period time between the start of consecutive bursts. If zero, or not longer than
+     *               the burst duration, the sensors are sampled continuously.
+     * @param duration duration of each burst.
+     * @param unit unit of the period and duration.
+     * @param burstDelayMillis sampling delay in milliseconds during a burst.
+     */
+    public void setBurstSchedule(long period, long duration, TimeUnit unit, int burstDelayMillis) {
+        long periodMillis = unit.toMillis(period);
+        long durationMillis = unit.toMillis(duration);
+        if (periodMillis > 0 && durationMillis >= periodMillis) {
+            logger.warn("Burst duration {} ms is not shorter than burst period {} ms; sampling continuously",
+                    durationMillis, periodMillis);
+            periodMillis = 0;
+        }
+        if (periodMillis == burstPeriodMillis && durationMillis == burstDurationMillis
+                && burstDelayMillis == this.burstDelayMillis) {
+            return;
+        }
+        burstPeriodMillis = periodMillis;
+        burstDurationMillis = durationMillis;
+        this.burstDelayMillis = burstDelayMillis;
+        if (isBurstReceiverRegistered) {
+            updateBurst();
         }
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // no action
+    /**
+     * Start or stop a burst according to the burst schedule, and set an alarm for the next
+     * start or stop. Each burst is identified by the number of burst periods since the Unix
+     * epoch, which is logged when the burst starts and stops.
+     */
+    private void updateBurst() {
+        boolean inBurst = false;
+        if (burstPeriodMillis > 0) {
+            long now = System.currentTimeMillis();
+            long periodStart = now - now % burstPeriodMillis;
+            inBurst = now - periodStart < burstDurationMillis;
+            long nextUpdate = inBurst ? periodStart + burstDurationMillis : periodStart + burstPeriodMillis;
+            if (alarmManager != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, nextUpdate, burstIntent);
+                } else {
+                    alarmManager.setExact(AlarmManager.RTC_WAKEUP, nextUpdate, burstIntent);
+                }
+            }
+            if (inBurst && !isInBurst) {
+                burstId = periodStart / burstPeriodMillis;
+            }
+        } else if (alarmManager != null) {
+            alarmManager.cancel(burstIntent);
+        }
+        if (inBurst == isInBurst) {
+            return;
+        }
+        isInBurst = inBurst;
+        logger.info("{} sensor burst {}", inBurst ? "Starting" : "Stopping", burstId);
+        if (getState().getStatus() == DeviceStatusListener.Status.CONNECTED) {
+            updateRegistrations();
+        }
     }
 
-    private void processAcceleration(SensorEvent event) {
-        // x,y,z are in m/s2
-        float x = event.values[0] / SensorManager.GRAVITY_EARTH;
-        float y = event.values[1] / SensorManager.GRAVITY_EARTH;
-        float z = event.values[2] / SensorManager.GRAVITY_EARTH;
-        getState().setAcceleration(x, y, z);
-        
-        double time = System.currentTimeMillis() / 1_000d;
+    /**
+     * Set the rate profiles. The sampling delay of each sensor is multiplied by the interval
+     * factor of the active profile. Only call from the main thread.
+     * @param nightStartHour local hour that the night profile starts.
+     * @param nightEndHour local hour that the night profile ends.
+     * @param hysteresis minimum time to keep a profile before switching to another.
+     * @param unit unit of the hysteresis.
+     * @param intervalFactors interval factors indexed by profile ordinal. A factor of zero
+     *                        disables the sensors while the profile is active.
+     */
+    public void setRateProfiles(int nightStartHour, int nightEndHour, long hysteresis,
+            TimeUnit unit, float[] intervalFactors) {
+        boolean factorsChanged = !Arrays.equals(intervalFactors, profileIntervalFactors);
+        profileIntervalFactors = intervalFactors.clone();
+        rateProfileMonitor.setSchedule(nightStartHour, nightEndHour, hysteresis, unit);
+        if (factorsChanged && getState().getStatus() == DeviceStatusListener.Status.CONNECTED) {
+            updateRegistrations();
+        }
+    }
 
-        send(accelerationTopic, new PhoneAcceleration(time, time, x, y, z));
+    private void setRateProfile(RateProfile profile) {
+        if (profile == rateProfile) {
+            return;
+        }
+        rateProfile = profile;
+        if (getState().getStatus() == DeviceStatusListener.Status.CONNECTED) {
+            updateRegistrations();
+        }
     }
 
-    private void processLight(SensorEvent event) {
-        float lightValue = event.values[0];
+    /** Whether a sensor type is parked while the phone is stationary, or sampled in bursts. */
+    private static boolean isMotionSensor(int sensorType) {
+        return sensorType == Sensor.TYPE_ACCELEROMETER || sensorType == Sensor.TYPE_GYROSCOPE
+                || sensorType == Sensor.TYPE_MAGNETIC_FIELD
+                || sensorType == Sensor.TYPE_ROTATION_VECTOR;
+    }
 
-        double time = System.currentTimeMillis() / 1_000d;
+    /** Whether a sensor type only reports changes, instead of sampling continuously. */
+    private static boolean isOnChangeSensor(int sensorType) {
+        return sensorType == Sensor.TYPE_LIGHT;
+    }
 
-        send(lightTopic, new PhoneLight(time, time, lightValue));
+    /**
+     * Longest gap between samples that a decimator bridges, in nanoseconds. A continuous sensor
+     * may miss a sample, but a longer gap means that it was parked, between bursts or
+     * unregistered, and interpolating over it would make up samples. A sensor that only reports
+     * changes keeps its value during a gap, up to a limit.
+     */
+    private static long decimationMaxGap(int sensorType, long outputInterval) {
+        long maxGap = DECIMATION_MAX_GAP_INTERVALS * outputInterval;
+        return isOnChangeSensor(sensorType) ? Math.max(maxGap, DECIMATION_MAX_HOLD_NANOS) : maxGap;
+    }
+
+    /**
+     * Set whether to collect sensor data without keeping the device awake. Normally, a wake lock
+     * is held for the whole session. In wakelock-free mode, batched sensors are registered with
+     * their wake-up variant, which wakes the device when its hardware FIFO needs to be emptied.
+     * A wake lock is then only held briefly while a batch is processed. Sensors without batch
+     * latency, or without a wake-up variant with a FIFO, are only collected while the device is
+     * awake.
+     */
+    @SuppressLint("WakelockTimeout")
+    public void setWakeLockFree(boolean wakeLockFree) {
+        if (isWakeLockFree == wakeLockFree) {
+            return;
+        }
+        isWakeLockFree = wakeLockFree;
+        getState().setWakeLockFree(wakeLockFree);
+        if (getState().getStatus() != DeviceStatusListener.Status.CONNECTED) {
+            return;
+        }
+        logger.info("Switching to {} sensor collection", wakeLockFree ? "wakelock-free" : "wake-locked");
+        if (wakeLock != null) {
+            if (!wakeLockFree) {
+                wakeLock.acquire();
+            } else if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        }
+        // register the other sensor variants
+        flushSensors(this::applyRegistrations);
+    }
+
+    /**
+     * Set the aggregation windows of the sensors. A sensor with a window sends one record per
+     * window, containing the mean value of the window, instead of all raw samples. The windows
+     * are sent on a separate topic per sensor, ending in {@code _window_mean}. Steps are summed
+     * over windows aligned to the wall clock, on the step count topic.
+     * @param aggregateWindows window length in milliseconds per sensor type. If zero, raw samples
+     *                         are sent.
+     */
+    public void setAggregateWindows(SparseIntArray aggregateWindows) {
+        SparseIntArray windows = new SparseIntArray(aggregateWindows.size());
+        copySparseIntArray(aggregateWindows, windows);
+        runOnRecordThread(() -> updateAggregators(windows));
     }
 
-    private void processGyroscope(SensorEvent event) {
-        // Not normalized axis of rotation in rad/s
-        float axisX = event.values[0];
-        float axisY = event.values[1];
-        float axisZ = event.values[2];
+    /**
+     * Set the interval at which to compute the orientation of the device. The orientation is
+     * taken from the rotation vector sensor, which should be configured with the same interval.
+     * If the phone has no rotation vector sensor, it is computed with a complementary filter over
+     * the acceleration, gyroscope and magnetic field instead, at the rate of those sensors. There
+     * is no data schema for the orientation yet, so it is only published in the phone state and
+     * logged. The raw motion sensors are still sent, so the orientation only adds the cost of the
+     * rotation vector sensor or the filter.
+     * @param intervalMillis interval in milliseconds, zero to disable the orientation.
+     */
+    public void setOrientationInterval(int intervalMillis) {
+        boolean hasRotationVector = handlersByType.length > Sensor.TYPE_ROTATION_VECTOR
+                && handlersByType[Sensor.TYPE_ROTATION_VECTOR] != null;
+        long interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        orientationInterval = interval;
+        if (interval > 0 && !hasRotationVector) {
+            if (orientationFilter == null) {
+                logger.info("No rotation vector sensor found; computing the orientation from the motion sensors");
+                orientationFilter = new OrientationFilter(ORIENTATION_FILTER_TIME_CONSTANT_NANOS);
+            }
+        } else {
+            orientationFilter = null;
+        }
+    }
+
+    /**
+     * Publish an orientation quaternion, at most once per orientation interval. Only call from
+     * the sensor thread.
+     */
+    private void publishOrientation(long time, float[] q) {
+        if (orientationInterval <= 0 || time < nextOrientationTime) {
+            return;
+        }
+        nextOrientationTime = time - time % orientationInterval + orientationInterval;
+        orientationCount++;
+        getState().setOrientation(q[0], q[1], q[2], q[3]);
+        if (logger.isDebugEnabled()) {
+            OrientationFilter.eulerAngles(q, orientationMatrix, orientationAngles);
+            logger.debug("Orientation at {}: azimuth {}, pitch {}, roll {} rad",
+                    orientationClock.toEpochSeconds(time), orientationAngles[0], orientationAngles[1],
+                    orientationAngles[2]);
+        }
+    }
 
-        double time = System.currentTimeMillis() / 1_000d;
+    /**
+     * Set the queues that samples wait in between the sensor thread, which receives the sensor
+     * events, and the record thread, which creates and sends the records. A queue that is full
+     * drops samples or makes the sensor thread wait, depending on the overflow policy. Dropped
+     * samples are logged when the queues are drained.
+     * @param capacity minimum number of samples per queue. This only takes effect when the
+     *                 sensors are started.
+     * @param policy what to do with a new sample if its queue is full.
+     */
+    public synchronized void setSampleQueues(int capacity, SensorSampleQueue.OverflowPolicy policy) {
+        if (capacity <= 0) {
+            logger.warn("Invalid sensor queue capacity {}; using {}", capacity, PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT);
+            capacity = PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT;
+        }
+        if (mHandler != null && capacity != sensorQueueCapacity) {
+            logger.info("The sensor queue capacity changes to {} when the sensors are restarted", capacity);
+        }
+        sensorQueueCapacity = capacity;
+        sensorQueuePolicy = policy;
+        for (SensorHandler handler : sensorHandlers) {
+            handler.setQueuePolicy(policy);
+        }
+    }
 
-        send(gyroscopeTopic, new PhoneGyroscope(time, time, axisX, axisY, axisZ));
+    /**
+     * Set the output intervals of the sensors. A sensor with an output interval is low-pass
+     * filtered and decimated to exactly one sample per interval, regardless of the rate at which
+     * the device delivers its events. The sampling interval of the sensor should not be longer
+     * than its output interval. No samples are output for a gap of more than two output
+     * intervals, for example while a motion sensor is parked. The light sensor only reports
+     * changes, so its last value is output during a gap of up to ten minutes.
+     * @param outputIntervals output interval in milliseconds per sensor type. If zero, all
+     *                        samples that the device delivers are used.
+     */
+    public void setOutputIntervals(SparseIntArray outputIntervals) {
+        SparseIntArray intervals = new SparseIntArray(outputIntervals.size());
+        copySparseIntArray(outputIntervals, intervals);
+        runOnRecordThread(() -> {
+            drainBuffers();
+            for (SensorHandler handler : sensorHandlers) {
+                handler.setOutputInterval(TimeUnit.MILLISECONDS.toNanos(intervals.get(handler.type)));
+            }
+        });
     }
 
-    private void processMagneticField(SensorEvent event) {
-        // Magnetic field in microTesla
-        float axisX = event.values[0];
-        float axisY = event.values[1];
-        float axisZ = event.values[2];
+    /**
+     * Set the deadband filters of the sensors. A sensor with a deadband filter only sends raw
+     * samples that changed significantly since the last sample that was sent. Aggregated windows
+     * are not filtered.
+     * @param thresholds filter thresholds per sensor type. Sensors without thresholds, or with
+     *                   disabled thresholds, are not filtered.
+     */
+    public void setDeadbands(SparseArray<SensorDeadbandFilter.Thresholds> thresholds) {
+        SparseArray<SensorDeadbandFilter.Thresholds> copy = thresholds.clone();
+        runOnRecordThread(() -> {
+            drainBuffers();
+            for (SensorHandler handler : sensorHandlers) {
+                handler.setDeadband(copy.get(handler.type));
+            }
+        });
+    }
 
-        double time = System.currentTimeMillis() / 1_000d;
+    /**
+     * Resample the acceleration, gyroscope and magnetic field onto a shared grid of sample
+     * times, so their records are aligned and can be joined on their time. Values at grid times
+     * are linearly interpolated between samples that are at most two sampling periods, or two
+     * grid intervals, apart, so no values are made up for a sensor that is parked or between
+     * bursts. Deadband filters and aggregation windows are applied to the
+     * resampled values. Call after {@link #setSensorDelays(SparseIntArray, SparseIntArray)}, since
+     * the resampler waits for lagging sensors for up to their batch latency.
+     * @param intervalMillis interval between grid times in milliseconds. If zero, raw samples
+     *                       are sent.
+     */
+    public void setImuResampling(int intervalMillis) {
+        int maxBatchLatency = 0;
+        for (BufferedSensorHandler handler : imuHandlers) {
+            maxBatchLatency = Math.max(maxBatchLatency,
+                    sensorBatchLatencies.get(handler.type, PHONE_SENSOR_BATCH_LATENCY_DEFAULT));
+        }
+        long interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        long maxLatency = TimeUnit.MILLISECONDS.toNanos(
+                maxBatchLatency + 2 * SENSOR_BUFFER_DRAIN_INTERVAL_MILLIS);
+        runOnRecordThread(() -> {
+            ImuResampler current = imuResampler;
+            if (current == null ? interval <= 0
+                    : current.getInterval() == interval && current.getMaxLatency() == maxLatency) {
+                return;
+            }
+            drainBuffers();
+            if (current != null) {
+                current.flush();
+                logResampling(current);
+            }
+            if (interval > 0) {
+                SensorRingBuffer.SampleConsumer[] outputs = new SensorRingBuffer.SampleConsumer[imuHandlers.length];
+                for (int i = 0; i < imuHandlers.length; i++) {
+                    outputs[i] = imuHandlers[i].resampledSender;
+                }
+                imuResampler = new ImuResampler(interval, maxLatency, imuResampleMaxGap(interval),
+                        IMU_RESAMPLE_BUFFER_CAPACITY, outputs);
+            } else {
+                imuResampler = null;
+            }
+            for (int i = 0; i < imuHandlers.length; i++) {
+                imuHandlers[i].setResampler(imuResampler != null ? imuResampler.getInput(i) : null);
+            }
+        });
+    }
 
-        send(magneticFieldTopic, new PhoneMagneticField(time, time, axisX, axisY, axisZ));
+    private static void logResampling(ImuResampler resampler) {
+        logger.info("Resampled {} inertial frames, of which {} without all sensors",
+                resampler.getFrameCount(), resampler.getIncompleteFrameCount());
     }
 
-    private void processStep(SensorEvent event) {
-        // Number of step since listening or since reboot
-        int stepCount = (int) event.values[0];
+    /** Run given action on the record thread, or directly if that is not running. */
+    private void runOnRecordThread(Runnable runnable) {
+        synchronized (this) {
+            if (mRecordHandler != null) {
+                mRecordHandler.post(runnable);
+                return;
+            }
+        }
+        runnable.run();
+    }
 
-        double time = System.currentTimeMillis() / 1_000d;
+    private void updateAggregators(SparseIntArray windows) {
+        drainBuffers();
+        for (SensorHandler handler : sensorHandlers) {
+            handler.setAggregateWindow(TimeUnit.MILLISECONDS.toNanos(windows.get(handler.type)));
+        }
+    }
 
-        // Send how many steps have been taken since the last time this function was triggered
-        // Note: normally processStep() is called for every new step and the stepsSinceLastUpdate is 1
-        int stepsSinceLastUpdate;
-        if (lastStepCount == -1 || lastStepCount > stepCount) {
-            stepsSinceLastUpdate = 1;
+    private static void copySparseIntArray(SparseIntArray source, SparseIntArray destination) {
+        destination.clear();
+        for (int i = 0; i < source.size(); i++) {
+            destination.put(source.keyAt(i), source.valueAt(i));
+        }
+    }
+
+    /**
+     * Set the battery heartbeat interval. Battery changes are sent as they occur, but if no change
+     * was sent for about this interval, the current battery status is sent anyway.
+     */
+    public final void setBatteryUpdateInterval(final long period, TimeUnit batteryIntervalUnit) {
+        synchronized (batteryLock) {
+            batteryHeartbeatMillis = batteryIntervalUnit.toMillis(period);
+        }
+        batteryProcessor.setInterval(period, batteryIntervalUnit);
+    }
+
+    /**
+     * Set the minimum battery level change that is sent.
+     * @param levelChange level change as a fraction of a full battery, e.g. 0.01 for 1%.
+     */
+    public final void setBatteryLevelChange(float levelChange) {
+        synchronized (batteryLock) {
+            batteryLevelChange = levelChange;
+        }
+    }
+
+    /** Register all sensors in the sensor registry. */
+    private void registerSensors() {
+        for (SensorHandler handler : sensorHandlers) {
+            updateRegistration(handler);
+        }
+        updateImuSamplingPeriod();
+    }
+
+    /**
+     * Sensor to register for a handler. In wakelock-free mode, this is the wake-up variant of a
+     * batched sensor, if it has a hardware FIFO.
+     */
+    private Sensor resolveSensor(SensorHandler handler) {
+        if (isWakeLockFree && sensorBatchLatencies.get(handler.type, PHONE_SENSOR_BATCH_LATENCY_DEFAULT) > 0) {
+            Sensor wakeUpSensor = sensorManager.getDefaultSensor(handler.type, true);
+            if (wakeUpSensor != null && wakeUpSensor.getFifoMaxEventCount() > 0) {
+                return wakeUpSensor;
+            }
+            logger.warn("The sensor '{}' has no batched wake-up variant; it is only collected while the device is awake",
+                    handler.name);
+        }
+        return sensorManager.getDefaultSensor(handler.type);
+    }
+
+    /**
+     * Configured sampling delay of the sensor of a handler, in microseconds. This is zero if the
+     * sensor is disabled, parked, or waiting for the next burst. The delay is scaled by the
+     * interval factor of the active rate profile.
+     */
+    private int configuredDelay(SensorHandler handler) {
+        float factor = profileIntervalFactors[rateProfile.ordinal()];
+        if (factor <= 0f) {
+            return 0;
+        }
+        int delay = (int) TimeUnit.MILLISECONDS.toMicros(Math.round(
+                sensorDelays.get(handler.type, handler.defaultDelay()) * factor));
+        if (delay <= 0 || !isMotionSensor(handler.type)) {
+            return Math.max(delay, 0);
+        }
+        if (isParked) {
+            if (handler.type == Sensor.TYPE_ACCELEROMETER && !isSignificantMotionRequested) {
+                // detect motion at a low rate, without a significant motion trigger
+                return Math.max(delay, MOTION_GATE_PARKED_DELAY_MICROS);
+            }
+            return 0;
+        }
+        if (burstPeriodMillis > 0) {
+            return isInBurst ? (int) TimeUnit.MILLISECONDS.toMicros(burstDelayMillis) : 0;
+        }
+        return delay;
+    }
+
+    /**
+     * Configured batch latency of a sensor of a handler, in microseconds. This is zero if the
+     * sensor is disabled or if it has no hardware FIFO.
+     */
+    private int configuredLatency(SensorHandler handler, Sensor sensor) {
+        if (sensor == null || sensor.getFifoMaxEventCount() == 0
+                || configuredDelay(handler) == 0) {
+            return 0;
+        }
+        int latency = (int) TimeUnit.MILLISECONDS.toMicros(sensorBatchLatencies.get(handler.type, PHONE_SENSOR_BATCH_LATENCY_DEFAULT));
+        return Math.max(latency, 0);
+    }
+
+    /**
+     * Register the sensor of a handler with its configured delay and batch latency. The sensor is
+     * only unregistered and registered again if its delay, batch latency or variant changed.
+     * Sensors with a batch latency are registered with that maximum report latency if they have a
+     * hardware FIFO, so their events are delivered in batches.
+     */
+    private void updateRegistration(SensorHandler handler) {
+        Sensor sensor = resolveSensor(handler);
+        if (sensor == null) {
+            logger.warn("The sensor '{}' could not be found", handler.name);
+            return;
+        }
+        int delay = configuredDelay(handler);
+        int latency = configuredLatency(handler, sensor);
+        if (sensor == handler.sensor && delay == handler.registeredDelay
+                && latency == handler.registeredLatency) {
+            return;
+        }
+        if (handler.registeredDelay > 0) {
+            sensorManager.unregisterListener(this, handler.sensor);
+            handler.registeredDelay = 0;
+            handler.registeredLatency = 0;
+        }
+        handler.sensor = sensor;
+        if (delay == 0) {
+            logger.info("The sensor '{}' is disabled", handler.name);
+            return;
+        }
+        if (latency == 0 && sensorBatchLatencies.get(handler.type, PHONE_SENSOR_BATCH_LATENCY_DEFAULT) > 0) {
+            logger.info("The sensor '{}' has no hardware FIFO, not batching its events",
+                    handler.name);
+        }
+        synchronized (this) {
+            if (mHandler == null) {
+                return;
+            }
+            boolean isRegistered;
+            if (latency > 0) {
+                isRegistered = sensorManager.registerListener(this, handler.sensor, delay, latency, mHandler);
+            } else {
+                isRegistered = sensorManager.registerListener(this, handler.sensor, delay, mHandler);
+            }
+            if (isRegistered) {
+                handler.registeredDelay = delay;
+                handler.registeredLatency = latency;
+            } else {
+                logger.warn("Failed to register the sensor '{}'", handler.name);
+            }
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        int type = event.sensor.getType();
+        SensorHandler handler = type >= 0 && type < handlersByType.length ? handlersByType[type] : null;
+        if (handler != null) {
+            handler.onSensorChanged(event);
         } else {
-            stepsSinceLastUpdate = stepCount - lastStepCount;
+            logger.debug("Phone registered unknown sensor change: '{}'", type);
         }
-        lastStepCount = stepCount;
-        send(stepCountTopic, new PhoneStepCount(time, time, stepsSinceLastUpdate));
+        OrientationFilter filter = orientationFilter;
+        if (filter != null) {
+            float[] values = event.values;
+            if (type == Sensor.TYPE_ACCELEROMETER) {
+                filter.onAcceleration(event.timestamp, values[0], values[1], values[2]);
+                if (filter.hasOrientation()) {
+                    publishOrientation(event.timestamp, filter.getOrientation());
+                }
+            } else if (type == Sensor.TYPE_GYROSCOPE) {
+                filter.onGyroscope(event.timestamp, values[0], values[1], values[2]);
+            } else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
+                filter.onMagneticField(event.timestamp, values[0], values[1], values[2]);
+            }
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // no action
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        int generation = flushGeneration;
+        if (pendingFlushCount.decrementAndGet() == 0) {
+            mainHandler.post(() -> completeFlush(generation));
+        }
+    }
+
+    /**
+     * Flush the events that are still waiting in the hardware FIFO of batched sensors, so they
+     * are not lost when the sensors are unregistered, and then run given continuation. This does
+     * not wait for the flush: the continuation runs on the main thread once all sensors have
+     * delivered their flushed events, or after {@link #FLUSH_TIMEOUT_MILLIS}. If a flush is
+     * already pending, the continuation runs when that flush completes. Only call from the main
+     * thread.
+     */
+    private void flushSensors(Runnable continuation) {
+        if (!flushContinuations.isEmpty()) {
+            flushContinuations.add(continuation);
+            return;
+        }
+        int numRegisteredSensors = 0;
+        boolean isBatching = false;
+        for (SensorHandler handler : sensorHandlers) {
+            if (handler.registeredDelay > 0) {
+                numRegisteredSensors++;
+                isBatching |= handler.registeredLatency > 0;
+            }
+        }
+        if (!isBatching) {
+            continuation.run();
+            return;
+        }
+        flushContinuations.add(continuation);
+        int generation = flushGeneration + 1;
+        flushGeneration = generation;
+        pendingFlushCount.set(numRegisteredSensors);
+        if (sensorManager.flush(this)) {
+            mainHandler.postDelayed(flushTimeout, FLUSH_TIMEOUT_MILLIS);
+        } else {
+            completeFlush(generation);
+        }
+    }
+
+    /**
+     * Run the continuations of a flush, if it is still pending. Only call from the main thread.
+     * @param generation flush that completed.
+     */
+    private void completeFlush(int generation) {
+        if (generation != flushGeneration || flushContinuations.isEmpty()) {
+            return;
+        }
+        mainHandler.removeCallbacks(flushTimeout);
+        pendingFlushCount.set(0);
+        List<Runnable> continuations = new ArrayList<>(flushContinuations);
+        flushContinuations.clear();
+        for (Runnable continuation : continuations) {
+            continuation.run();
+        }
+    }
+
+    /** Schedule a drain of the sensor buffers on the record thread, if none is pending. */
+    private void scheduleDrain() {
+        if (!isDrainScheduled) {
+            synchronized (this) {
+                if (mRecordHandler != null && !isDrainScheduled) {
+                    if (isWakeLockFree && drainWakeLock != null) {
+                        // keep the device awake until the batch is processed
+                        drainWakeLock.acquire(SENSOR_BUFFER_DRAIN_INTERVAL_MILLIS + FLUSH_TIMEOUT_MILLIS);
+                    }
+                    mRecordHandler.postDelayed(drainRunnable, SENSOR_BUFFER_DRAIN_INTERVAL_MILLIS);
+                    isDrainScheduled = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drain the sensor buffers on the record thread as soon as possible, replacing any
+     * scheduled drain. Called when a sensor queue is filling up.
+     */
+    private void requestDrain() {
+        if (!isDrainRequested) {
+            synchronized (this) {
+                if (mRecordHandler != null && !isDrainRequested) {
+                    if (isWakeLockFree && drainWakeLock != null) {
+                        drainWakeLock.acquire(SENSOR_BUFFER_DRAIN_INTERVAL_MILLIS + FLUSH_TIMEOUT_MILLIS);
+                    }
+                    mRecordHandler.removeCallbacks(drainRunnable);
+                    mRecordHandler.post(drainRunnable);
+                    isDrainScheduled = true;
+                    isDrainRequested = true;
+                }
+            }
+        }
+    }
+
+    /** Create and send records for all buffered samples. Only call from the record thread. */
+    private void drainBuffers() {
+        drainTime = System.currentTimeMillis() / 1_000d;
+        for (SensorHandler handler : sensorHandlers) {
+            handler.drain();
+        }
+    }
 
-        logger.info("Steps taken: {}", stepsSinceLastUpdate);
+    /** Send all buffered samples and partially aggregated data. */
+    private void drainAndFlush() {
+        drainTime = System.currentTimeMillis() / 1_000d;
+        if (imuResampler != null) {
+            // the resampler output goes into the aggregators, so flush it first
+            for (SensorHandler handler : sensorHandlers) {
+                handler.drain();
+            }
+            imuResampler.flush();
+            logResampling(imuResampler);
+        }
+        if (orientationCount > 0) {
+            logger.info("Computed {} orientations", orientationCount);
+        }
+        for (SensorHandler handler : sensorHandlers) {
+            handler.flush();
+        }
     }
 
+    /** Battery heartbeat, sends the current status if no change was sent recently. */
     private void processBatteryStatus() {
         if (batteryProcessor.isDone()) {
             return;
@@ -303,10 +1223,20 @@ class PhoneSensorManager extends AbstractDeviceManager<PhoneSensorService, Phone
                 new IntentFilter(Intent.ACTION_BATTERY_CHANGED)
         );
 
-        if (intent == null) {
-            return;
+        if (intent != null) {
+            updateBatteryStatus(intent, true);
         }
+    }
 
+    /**
+     * Send the battery status if it changed meaningfully since the last status that was sent.
+     * The level must change by at least the configured level change, so small fluctuations
+     * around a level are not sent. Plug and status changes are always sent.
+     * @param intent battery changed intent.
+     * @param isHeartbeat whether to send the status anyway if none was sent in about the
+     *                    heartbeat interval.
+     */
+    private void updateBatteryStatus(Intent intent, boolean isHeartbeat) {
         int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
         int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
 
@@ -316,25 +1246,624 @@ class PhoneSensorManager extends AbstractDeviceManager<PhoneSensorService, Phone
         int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, BATTERY_STATUS_UNKNOWN);
         BatteryStatus batteryStatus = BATTERY_TYPES.get(status, BatteryStatus.UNKNOWN);
 
-        getState().setBatteryLevel(batteryPct);
+        long now = System.currentTimeMillis();
+        synchronized (batteryLock) {
+            getState().setBatteryLevel(batteryPct);
+
+            // the heartbeat is not exact, so accept it after half the interval
+            boolean needsHeartbeat = isHeartbeat
+                    && now - sentBatteryTime >= batteryHeartbeatMillis / 2;
+            if (!needsHeartbeat
+                    && Math.abs(batteryPct - sentBatteryLevel) < batteryLevelChange - BATTERY_LEVEL_CHANGE_TOLERANCE
+                    && isPlugged == sentBatteryPlugged
+                    && batteryStatus == sentBatteryStatus) {
+                return;
+            }
+            sentBatteryLevel = batteryPct;
+            sentBatteryPlugged = isPlugged;
+            sentBatteryStatus = batteryStatus;
+            sentBatteryTime = now;
+        }
 
-        double time = System.currentTimeMillis() / 1000d;
+        double time = now / 1000d;
         send(batteryTopic, new PhoneBatteryLevel(time, time, batteryPct, isPlugged, batteryStatus));
     }
 
+    /**
+     * Close the manager. This does not wait for the sensors: the batched sensors are flushed and
+     * unregistered in the background, and the manager is closed once the remaining data is sent.
+     * The status stays connected until then, but no sensors or triggers are registered anymore.
+     */
     @Override
     public void close() throws IOException {
+        isClosing = true;
         batteryProcessor.close();
+        if (isBurstReceiverRegistered) {
+            getService().unregisterReceiver(burstReceiver);
+            isBurstReceiverRegistered = false;
+        }
+        if (alarmManager != null) {
+            alarmManager.cancel(burstIntent);
+        }
+        rateProfileMonitor.stop();
+        synchronized (batteryLock) {
+            if (isBatteryReceiverRegistered) {
+                getService().unregisterReceiver(batteryReceiver);
+                isBatteryReceiverRegistered = false;
+            }
+        }
         if (sensorManager != null) {
+            if (isSignificantMotionRequested) {
+                sensorManager.cancelTriggerSensor(significantMotionListener, significantMotionSensor);
+                isSignificantMotionRequested = false;
+            }
+            flushSensors(this::stopSensors);
+        } else {
+            stopSensors();
+        }
+    }
+
+    /**
+     * Unregister the sensors after the final flush, and stop the sensor thread once it has
+     * processed the events that were already delivered. Only call from the main thread.
+     */
+    private void stopSensors() {
+        if (sensorManager != null) {
+            // a trigger may have been requested while the sensors were flushed
+            if (significantMotionSensor != null) {
+                sensorManager.cancelTriggerSensor(significantMotionListener, significantMotionSensor);
+                isSignificantMotionRequested = false;
+            }
             sensorManager.unregisterListener(this);
+            for (SensorHandler handler : sensorHandlers) {
+                handler.registeredDelay = 0;
+                handler.registeredLatency = 0;
+            }
         }
-        if (wakeLock != null) {
+        if (wakeLock != null && wakeLock.isHeld()) {
             wakeLock.release();
         }
+        Handler sensorHandler;
         synchronized (this) {
+            sensorHandler = mHandler;
             mHandler = null;
         }
+        // queue the events that were already delivered before sending the remaining samples
+        if (sensorHandler != null) {
+            sensorHandler.post(this::stopRecords);
+        } else {
+            stopRecords();
+        }
         mHandlerThread.quitSafely();
-        super.close();
+    }
+
+    /**
+     * Send the remaining buffered samples, close the manager and stop the record thread. Called
+     * on the sensor thread after its last event.
+     */
+    private void stopRecords() {
+        Handler recordHandler;
+        synchronized (this) {
+            recordHandler = mRecordHandler;
+            mRecordHandler = null;
+        }
+        if (recordHandler != null) {
+            recordHandler.removeCallbacks(drainRunnable);
+            recordHandler.post(this::drainAndFlush);
+            recordHandler.post(this::closeManager);
+        } else {
+            closeManager();
+        }
+        mRecordThread.quitSafely();
+    }
+
+    /** Close the manager, after all data was sent. */
+    private void closeManager() {
+        if (drainWakeLock != null && drainWakeLock.isHeld()) {
+            drainWakeLock.release();
+        }
+        try {
+            super.close();
+        } catch (IOException ex) {
+            logger.warn("Failed to close phone sensor manager", ex);
+        }
+    }
+
+    /** Processing of the events of a single sensor type. */
+    private abstract class SensorHandler {
+        final int type;
+        final String name;
+        // Registration state, only modified when (un)registering
+        Sensor sensor;
+        int registeredDelay;
+        int registeredLatency;
+
+        SensorHandler(int type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        /**
+         * Process a sensor event. Only called from the sensor thread, so any processing that
+         * may take long should be passed to the record thread.
+         */
+        abstract void onSensorChanged(SensorEvent event);
+
+        /** Sampling delay in milliseconds if none is configured. */
+        int defaultDelay() {
+            return PHONE_SENSOR_INTERVAL_DEFAULT;
+        }
+
+        /** Send any buffered samples. Only called from the record thread. */
+        void drain() {
+            // nothing buffered by default
+        }
+
+        /**
+         * Create the queue that samples wait in until they are drained. Only called while the
+         * sensors are not registered.
+         */
+        void createQueue(int capacity, SensorSampleQueue.OverflowPolicy policy) {
+            // no queue by default
+        }
+
+        /** Set what to do with a new sample if the queue is full. */
+        void setQueuePolicy(SensorSampleQueue.OverflowPolicy policy) {
+            // no queue by default
+        }
+
+        /** Send any buffered samples and partially aggregated data. */
+        void flush() {
+            drain();
+        }
+
+        /**
+         * Set the length of the window to aggregate samples over.
+         * @param windowLength window length in nanoseconds, zero to disable aggregation.
+         */
+        void setAggregateWindow(long windowLength) {
+            // not supported by default
+        }
+
+        /**
+         * Set the thresholds of the deadband filter of raw samples.
+         * @param thresholds filter thresholds, or null to disable filtering.
+         */
+        void setDeadband(SensorDeadbandFilter.Thresholds thresholds) {
+            // not supported by default
+        }
+
+        /**
+         * Set the interval to decimate samples to.
+         * @param outputInterval output interval in nanoseconds, zero to disable decimation.
+         */
+        void setOutputInterval(long outputInterval) {
+            // not supported by default
+        }
+    }
+
+    /**
+     * Handler that stages samples in a lock-free queue, without allocating memory, and only
+     * creates records when the queue is drained on the record thread. Samples can optionally be
+     * aggregated over windows.
+     */
+    private class BufferedSensorHandler extends SensorHandler {
+        private volatile SensorSampleQueue queue;
+        private long reportedDropCount;
+        private final int numValues;
+        private final float unit;
+        private final SensorRingBuffer.SampleConsumer sender;
+        private final SensorWindowAggregator.WindowListener windowSender;
+        private SensorWindowAggregator aggregator;
+        private SensorDeadbandFilter.Thresholds deadband;
+        private SensorDeadbandFilter filter;
+        private final List<SensorRingBuffer.SampleConsumer> taps = new ArrayList<>();
+        private SensorDecimator decimator;
+        private SensorRingBuffer.SampleConsumer resampleInput;
+        private SensorRingBuffer.SampleConsumer records;
+        private SensorRingBuffer.SampleConsumer decimated;
+        private SensorRingBuffer.SampleConsumer consumer;
+        /** Sends resampled values to the aggregator, deadband filter or sender. */
+        final SensorRingBuffer.SampleConsumer resampledSender = (time, x, y, z) -> records.accept(time, x, y, z);
+
+        /**
+         * @param numValues number of values per sample, at most three.
+         * @param unit unit to divide the event values by.
+         * @param sender sends a single sample.
+         * @param windowSender sends an aggregated window.
+         */
+        BufferedSensorHandler(int type, String name, int numValues, float unit,
+                SensorRingBuffer.SampleConsumer sender,
+                SensorWindowAggregator.WindowListener windowSender) {
+            super(type, name);
+            this.queue = new SensorSampleQueue(PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT,
+                    SensorSampleQueue.OverflowPolicy.parse(PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT),
+                    SENSOR_QUEUE_BLOCK_TIMEOUT_NANOS);
+            this.numValues = numValues;
+            this.unit = unit;
+            this.sender = sender;
+            this.windowSender = windowSender;
+            this.records = sender;
+            this.decimated = sender;
+            this.consumer = sender;
+        }
+
+        @Override
+        void onSensorChanged(SensorEvent event) {
+            float x = event.values[0] / unit;
+            float y = numValues > 1 ? event.values[1] / unit : 0f;
+            float z = numValues > 2 ? event.values[2] / unit : 0f;
+            onSample(x, y, z);
+
+            SensorSampleQueue queue = this.queue;
+            queue.offer(event.timestamp, x, y, z);
+            if (queue.size() >= queue.capacity() / 2) {
+                requestDrain();
+            } else {
+                scheduleDrain();
+            }
+        }
+
+        /** Hook called for each sample as it arrives, on the sensor thread. */
+        void onSample(float x, float y, float z) {
+            // no action
+        }
+
+        @Override
+        void drain() {
+            SensorSampleQueue queue = this.queue;
+            queue.drain(consumer);
+            long dropCount = queue.getDroppedCount();
+            if (dropCount != reportedDropCount) {
+                logger.warn("Sensor queue of '{}' is full; dropped {} samples, {} in total",
+                        name, dropCount - reportedDropCount, dropCount);
+                reportedDropCount = dropCount;
+            }
+        }
+
+        @Override
+        void createQueue(int capacity, SensorSampleQueue.OverflowPolicy policy) {
+            SensorSampleQueue current = queue;
+            if (current.capacity() < capacity || current.capacity() >= 2 * capacity) {
+                queue = new SensorSampleQueue(capacity, policy, SENSOR_QUEUE_BLOCK_TIMEOUT_NANOS);
+            } else {
+                current.setPolicy(policy);
+            }
+        }
+
+        @Override
+        void setQueuePolicy(SensorSampleQueue.OverflowPolicy policy) {
+            queue.setPolicy(policy);
+        }
+
+        @Override
+        void flush() {
+            drain();
+            if (queue.getBlockedCount() > 0) {
+                logger.info("Sensor thread waited for the queue of '{}' for {} samples",
+                        name, queue.getBlockedCount());
+            }
+            if (aggregator != null) {
+                aggregator.flush();
+            }
+            if (filter != null) {
+                logger.info("Deadband filter of sensor '{}' sent {} of {} samples",
+                        name, filter.getPassedCount(), filter.getReceivedCount());
+            }
+            if (decimator != null) {
+                logger.info("Decimated sensor '{}' from {} to {} samples",
+                        name, decimator.getInputCount(), decimator.getOutputCount());
+            }
+        }
+
+        @Override
+        void setAggregateWindow(long windowLength) {
+            if (aggregator != null) {
+                if (aggregator.getWindowLength() == windowLength) {
+                    return;
+                }
+                aggregator.flush();
+            }
+            aggregator = windowLength > 0 ? new SensorWindowAggregator(windowLength, windowSender) : null;
+            updateConsumer();
+        }
+
+        @Override
+        void setDeadband(SensorDeadbandFilter.Thresholds thresholds) {
+            if (thresholds != null && !thresholds.isEnabled()) {
+                thresholds = null;
+            }
+            if (thresholds == null ? deadband == null : thresholds.equals(deadband)) {
+                return;
+            }
+            deadband = thresholds;
+            filter = thresholds != null
+                    ? new SensorDeadbandFilter(thresholds, TimeUnit.MILLISECONDS.toNanos(thresholds.getMaxSilenceMillis()), sender)
+                    : null;
+            updateConsumer();
+        }
+
+        @Override
+        void setOutputInterval(long outputInterval) {
+            if (decimator == null ? outputInterval <= 0 : decimator.getOutputInterval() == outputInterval) {
+                return;
+            }
+            decimator = outputInterval > 0
+                    ? new SensorDecimator(outputInterval, decimationMaxGap(type, outputInterval),
+                            isOnChangeSensor(type), (time, x, y, z) -> decimated.accept(time, x, y, z))
+                    : null;
+            updateConsumer();
+        }
+
+        /**
+         * Pass raw samples to a resampler instead of sending them. The resampler output should be
+         * passed to {@link #resampledSender}. Taps still receive the raw samples.
+         * @param input resampler input, or null to send raw samples.
+         */
+        void setResampler(SensorRingBuffer.SampleConsumer input) {
+            resampleInput = input;
+            updateConsumer();
+        }
+
+        /** Add an additional consumer of all samples. Null values are ignored. */
+        void addTap(SensorRingBuffer.SampleConsumer tap) {
+            if (tap != null) {
+                taps.add(tap);
+                updateConsumer();
+            }
+        }
+
+        /** Remove an additional consumer of all samples. Null values are ignored. */
+        void removeTap(SensorRingBuffer.SampleConsumer tap) {
+            if (tap != null && taps.remove(tap)) {
+                updateConsumer();
+            }
+        }
+
+        private void updateConsumer() {
+            if (aggregator != null) {
+                records = aggregator;
+            } else if (filter != null) {
+                records = filter;
+            } else {
+                records = sender;
+            }
+            decimated = resampleInput != null ? resampleInput : records;
+            SensorRingBuffer.SampleConsumer result = decimator != null ? decimator : decimated;
+            for (SensorRingBuffer.SampleConsumer tap : taps) {
+                SensorRingBuffer.SampleConsumer previous = result;
+                result = (time, x, y, z) -> {
+                    previous.accept(time, x, y, z);
+                    tap.accept(time, x, y, z);
+                };
+            }
+            consumer = result;
+        }
+    }
+
+    /**
+     * Handler that sends the number of steps taken. Steps can be summed over windows that are
+     * aligned to the wall clock, so a single record is sent per window instead of one per step.
+     */
+    private abstract class StepHandler extends SensorHandler {
+        private final AvroTopic<ObservationKey, PhoneStepCount> topic;
+        private final Runnable windowRunnable = this::sendWindow;
+        private long windowMillis;
+        private long windowStartMillis;
+        private int windowSteps;
+
+        StepHandler(int type, String name, AvroTopic<ObservationKey, PhoneStepCount> topic) {
+            super(type, name);
+            this.topic = topic;
+        }
+
+        /**
+         * Add steps taken at given sensor time. Without a window, they are sent immediately.
+         * Otherwise, they are sent when the window ends. Only call from the record thread.
+         */
+        void addSteps(long timestamp, int steps) {
+            if (steps <= 0) {
+                return;
+            }
+            double time = sensorClock.toEpochSeconds(timestamp);
+            if (windowMillis == 0) {
+                sendSteps(time, steps);
+                return;
+            }
+            long timeMillis = (long) (time * 1000d);
+            if (windowSteps > 0 && timeMillis >= windowStartMillis + windowMillis) {
+                sendWindow();
+            }
+            if (windowSteps == 0) {
+                windowStartMillis = timeMillis - timeMillis % windowMillis;
+                synchronized (PhoneSensorManager.this) {
+                    if (mRecordHandler != null) {
+                        mRecordHandler.postDelayed(windowRunnable,
+                                windowStartMillis + windowMillis - System.currentTimeMillis());
+                    }
+                }
+            }
+            windowSteps += steps;
+        }
+
+        /** Number of steps that were added but not sent yet. */
+        int getPendingSteps() {
+            return windowSteps;
+        }
+
+        private void sendWindow() {
+            if (windowSteps == 0) {
+                return;
+            }
+            synchronized (PhoneSensorManager.this) {
+                if (mRecordHandler != null) {
+                    mRecordHandler.removeCallbacks(windowRunnable);
+                }
+            }
+            int steps = windowSteps;
+            windowSteps = 0;
+            sendSteps(windowStartMillis / 1000d, steps);
+        }
+
+        private void sendSteps(double time, int steps) {
+            send(topic, new PhoneStepCount(time, System.currentTimeMillis() / 1000d, steps));
+            logger.debug("Steps taken: {}", steps);
+            onStepsSent();
+        }
+
+        /** Hook called after steps were sent. */
+        void onStepsSent() {
+            // no action
+        }
+
+        @Override
+        void flush() {
+            sendWindow();
+        }
+
+        @Override
+        void setAggregateWindow(long windowLength) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(windowLength);
+            if (millis != windowMillis) {
+                sendWindow();
+                windowMillis = millis;
+            }
+        }
+    }
+
+    /**
+     * Handler of the cumulative step counter. The last counter value that was sent is stored,
+     * together with the boot time, so that steps taken while the service was not running are
+     * still counted after a restart, and a counter reset by a reboot is detected.
+     */
+    private class StepCounterHandler extends StepHandler {
+        private final SharedPreferences preferences;
+        private int lastStepCount = -1;
+        private int storedStepCount = -1;
+        private final int bootCount;
+
+        StepCounterHandler(AvroTopic<ObservationKey, PhoneStepCount> topic) {
+            super(Sensor.TYPE_STEP_COUNTER, Sensor.STRING_TYPE_STEP_COUNTER, topic);
+            preferences = getService().getSharedPreferences(PhoneSensorManager.class.getName(), Context.MODE_PRIVATE);
+            bootCount = bootCount();
+        }
+
+        @Override
+        void onSensorChanged(SensorEvent event) {
+            // Number of steps since the sensor was first activated after reboot
+            int stepCount = (int) event.values[0];
+            long timestamp = event.timestamp;
+            runOnRecordThread(() -> countSteps(timestamp, stepCount));
+        }
+
+        private void countSteps(long timestamp, int stepCount) {
+            int steps;
+            if (lastStepCount == -1) {
+                steps = stepCount - initialStepCount(stepCount);
+            } else if (stepCount < lastStepCount) {
+                // the counter was reset
+                steps = stepCount;
+            } else {
+                steps = stepCount - lastStepCount;
+            }
+            lastStepCount = stepCount;
+            addSteps(timestamp, steps);
+        }
+
+        /** Counter value from which to count steps, at the first event of this session. */
+        private int initialStepCount(int stepCount) {
+            int storedCount = preferences.getInt(STEP_COUNT_LAST, -1);
+            if (storedCount == -1) {
+                // no history, only count steps from now on
+                return stepCount;
+            }
+            int storedBootCount = preferences.getInt(STEP_COUNT_BOOT_COUNT, -1);
+            if (stepCount < storedCount
+                    || (bootCount != -1 && storedBootCount != -1 && bootCount != storedBootCount)) {
+                // the phone rebooted, so the counter started from zero
+                return 0;
+            } else {
+                return storedCount;
+            }
+        }
+
+        /**
+         * Number of boots of the device, or -1 if unknown. Without a boot count, a reboot is only
+         * detected if the counter is lower than the stored count.
+         */
+        private int bootCount() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                return Settings.Global.getInt(getService().getContentResolver(),
+                        Settings.Global.BOOT_COUNT, -1);
+            } else {
+                return -1;
+            }
+        }
+
+        @Override
+        void onStepsSent() {
+            // store the counter value at most once per drain interval
+            scheduleDrain();
+        }
+
+        @Override
+        void drain() {
+            int sentStepCount = lastStepCount - getPendingSteps();
+            if (lastStepCount == -1 || sentStepCount == storedStepCount) {
+                return;
+            }
+            preferences.edit()
+                    .putInt(STEP_COUNT_LAST, sentStepCount)
+                    .putInt(STEP_COUNT_BOOT_COUNT, bootCount)
+                    .apply();
+            storedStepCount = sentStepCount;
+        }
+
+        @Override
+        void flush() {
+            super.flush();
+            drain();
+        }
+    }
+
+    /**
+     * Handler of the step detector, which triggers an event for each step. This gives the exact
+     * time of each step, for computing the cadence.
+     */
+    private class StepDetectorHandler extends StepHandler {
+        StepDetectorHandler(AvroTopic<ObservationKey, PhoneStepCount> topic) {
+            super(Sensor.TYPE_STEP_DETECTOR, Sensor.STRING_TYPE_STEP_DETECTOR, topic);
+        }
+
+        @Override
+        void onSensorChanged(SensorEvent event) {
+            long timestamp = event.timestamp;
+            runOnRecordThread(() -> addSteps(timestamp, 1));
+        }
+
+        @Override
+        int defaultDelay() {
+            // the step counter is used by default
+            return 0;
+        }
+    }
+
+    /** Handler that publishes the orientation given by the rotation vector sensor. */
+    private class OrientationHandler extends SensorHandler {
+        OrientationHandler() {
+            super(Sensor.TYPE_ROTATION_VECTOR, Sensor.STRING_TYPE_ROTATION_VECTOR);
+        }
+
+        @Override
+        void onSensorChanged(SensorEvent event) {
+            OrientationFilter.fromRotationVector(event.values, orientation);
+            publishOrientation(event.timestamp, orientation);
+        }
+
+        @Override
+        int defaultDelay() {
+            // only enabled if the orientation is configured
+            return 0;
+        }
     }
 }
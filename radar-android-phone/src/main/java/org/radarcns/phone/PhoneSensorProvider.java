@@ -16,8 +16,10 @@
 
 package org.radarcns.phone;
 
+import android.hardware.Sensor;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.util.SparseArray;
 
 import org.radarcns.android.RadarConfiguration;
 import org.radarcns.android.device.DeviceServiceProvider;
@@ -28,16 +30,73 @@ import java.util.List;
 public class PhoneSensorProvider extends DeviceServiceProvider<PhoneState> {
     static final int PHONE_SENSOR_INTERVAL_DEFAULT = 200;
     static final int PHONE_SENSOR_BATTERY_INTERVAL_DEFAULT_SECONDS = 600;
+    static final float PHONE_SENSOR_BATTERY_LEVEL_CHANGE_DEFAULT = 0.01f;
+    static final int PHONE_SENSOR_MOTION_GATING_STILL_DURATION_DEFAULT_SECONDS = 300;
+    static final float PHONE_SENSOR_MOTION_GATING_THRESHOLD_DEFAULT = 0.01f;
+    static final int PHONE_SENSOR_BURST_PERIOD_DEFAULT_SECONDS = 0;
+    static final int PHONE_SENSOR_BURST_DURATION_DEFAULT_SECONDS = 30;
+    static final int PHONE_SENSOR_BURST_INTERVAL_DEFAULT = 20;
+    static final int PHONE_SENSOR_IMU_RESAMPLE_INTERVAL_DEFAULT = 0;
+    static final int PHONE_SENSOR_ORIENTATION_INTERVAL_DEFAULT = 0;
+    static final int PHONE_SENSOR_BATCH_LATENCY_DEFAULT = 0;
+    static final int PHONE_SENSOR_AGGREGATE_WINDOW_DEFAULT = 0;
+    static final int PHONE_SENSOR_OUTPUT_INTERVAL_DEFAULT = 0;
+    static final float PHONE_SENSOR_DEADBAND_ABSOLUTE_DEFAULT = 0f;
+    static final float PHONE_SENSOR_DEADBAND_RELATIVE_DEFAULT = 0f;
+    static final int PHONE_SENSOR_DEADBAND_MAX_SILENCE_DEFAULT = 0;
+    static final int PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT = 1024;
+    static final String PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT = "drop_oldest";
+    static final String PHONE_SENSOR_PREFIX = "phone_sensor_";
+    static final String INTERVAL_SUFFIX = "_interval";
+    static final String BATCH_LATENCY_SUFFIX = "_batch_latency";
+    static final String AGGREGATE_WINDOW_SUFFIX = "_aggregate_window";
+    static final String OUTPUT_INTERVAL_SUFFIX = "_output_interval";
+    static final String DEADBAND_ABSOLUTE_SUFFIX = "_deadband_absolute";
+    static final String DEADBAND_RELATIVE_SUFFIX = "_deadband_relative";
+    static final String DEADBAND_MAX_SILENCE_SUFFIX = "_deadband_max_silence";
     static final String PHONE_SENSOR_INTERVAL = "phone_sensor_default_interval";
-    static final String PHONE_SENSOR_GYROSCOPE_INTERVAL = "phone_sensor_gyroscope_interval";
-    static final String PHONE_SENSOR_MAGNETIC_FIELD_INTERVAL = "phone_sensor_magneticfield_interval";
-    static final String PHONE_SENSOR_STEP_COUNT_INTERVAL = "phone_sensor_steps_interval";
-    static final String PHONE_SENSOR_ACCELERATION_INTERVAL = "phone_sensor_acceleration_interval";
-    static final String PHONE_SENSOR_LIGHT_INTERVAL = "phone_sensor_light_interval";
+    static final String PHONE_SENSOR_BATCH_LATENCY = "phone_sensor_default_batch_latency";
+    static final String PHONE_SENSOR_AGGREGATE_WINDOW = "phone_sensor_default_aggregate_window";
+    static final String PHONE_SENSOR_OUTPUT_INTERVAL = "phone_sensor_default_output_interval";
+    static final String PHONE_SENSOR_DEADBAND_ABSOLUTE = "phone_sensor_default_deadband_absolute";
+    static final String PHONE_SENSOR_DEADBAND_RELATIVE = "phone_sensor_default_deadband_relative";
+    static final String PHONE_SENSOR_DEADBAND_MAX_SILENCE = "phone_sensor_default_deadband_max_silence";
     static final String PHONE_SENSOR_BATTERY_INTERVAL_SECONDS = "phone_sensor_battery_interval_seconds";
+    static final String PHONE_SENSOR_BATTERY_LEVEL_CHANGE = "phone_sensor_battery_level_change";
+    static final String PHONE_SENSOR_STEPS_USE_DETECTOR = "phone_sensor_steps_use_detector";
+    static final String PHONE_SENSOR_WAKELOCK_FREE = "phone_sensor_wakelock_free";
+    static final String PHONE_SENSOR_MOTION_GATING = "phone_sensor_motion_gating";
+    static final String PHONE_SENSOR_MOTION_GATING_STILL_DURATION_SECONDS = "phone_sensor_motion_gating_still_duration_seconds";
+    static final String PHONE_SENSOR_MOTION_GATING_THRESHOLD = "phone_sensor_motion_gating_threshold";
+    static final String PHONE_SENSOR_BURST_PERIOD_SECONDS = "phone_sensor_burst_period_seconds";
+    static final String PHONE_SENSOR_BURST_DURATION_SECONDS = "phone_sensor_burst_duration_seconds";
+    static final String PHONE_SENSOR_BURST_INTERVAL = "phone_sensor_burst_interval";
+    static final String PHONE_SENSOR_IMU_RESAMPLE_INTERVAL = "phone_sensor_imu_resample_interval";
+    static final String PHONE_SENSOR_ORIENTATION_INTERVAL = "phone_sensor_orientation_interval";
+    static final String PHONE_SENSOR_QUEUE_CAPACITY = "phone_sensor_queue_capacity";
+    static final String PHONE_SENSOR_QUEUE_OVERFLOW = "phone_sensor_queue_overflow";
     public static final String DEVICE_PRODUCER = "ANDROID";
     public static final String DEVICE_MODEL = "PHONE";
 
+    /**
+     * Names of the supported sensors in configuration keys, by sensor type. Each sensor is
+     * configured with keys {@code phone_sensor_<name>_<setting>}, defaulting to the value of
+     * {@code phone_sensor_default_<setting>}.
+     */
+    static final SparseArray<String> SENSOR_CONFIG_NAMES = new SparseArray<>(5);
+    static {
+        SENSOR_CONFIG_NAMES.append(Sensor.TYPE_ACCELEROMETER, "acceleration");
+        SENSOR_CONFIG_NAMES.append(Sensor.TYPE_MAGNETIC_FIELD, "magneticfield");
+        SENSOR_CONFIG_NAMES.append(Sensor.TYPE_GYROSCOPE, "gyroscope");
+        SENSOR_CONFIG_NAMES.append(Sensor.TYPE_LIGHT, "light");
+        SENSOR_CONFIG_NAMES.append(Sensor.TYPE_STEP_COUNTER, "steps");
+    }
+
+    /** Configuration key of a setting of given sensor type. */
+    static String sensorKey(int sensorType, String suffix) {
+        return PHONE_SENSOR_PREFIX + SENSOR_CONFIG_NAMES.get(sensorType) + suffix;
+    }
+
     @Override
     public String getDescription() {
         return getRadarService().getString(R.string.phone_sensors_description);
@@ -58,13 +117,46 @@ public class PhoneSensorProvider extends DeviceServiceProvider<PhoneState> {
         super.configure(bundle);
         RadarConfiguration config = getConfig();
         int defaultInterval = config.getInt(PHONE_SENSOR_INTERVAL, PHONE_SENSOR_INTERVAL_DEFAULT);
+        int defaultLatency = config.getInt(PHONE_SENSOR_BATCH_LATENCY, PHONE_SENSOR_BATCH_LATENCY_DEFAULT);
+        int defaultWindow = config.getInt(PHONE_SENSOR_AGGREGATE_WINDOW, PHONE_SENSOR_AGGREGATE_WINDOW_DEFAULT);
+        int defaultOutputInterval = config.getInt(PHONE_SENSOR_OUTPUT_INTERVAL, PHONE_SENSOR_OUTPUT_INTERVAL_DEFAULT);
+        float defaultDeadbandAbsolute = config.getFloat(PHONE_SENSOR_DEADBAND_ABSOLUTE, PHONE_SENSOR_DEADBAND_ABSOLUTE_DEFAULT);
+        float defaultDeadbandRelative = config.getFloat(PHONE_SENSOR_DEADBAND_RELATIVE, PHONE_SENSOR_DEADBAND_RELATIVE_DEFAULT);
+        int defaultDeadbandMaxSilence = config.getInt(PHONE_SENSOR_DEADBAND_MAX_SILENCE, PHONE_SENSOR_DEADBAND_MAX_SILENCE_DEFAULT);
         bundle.putInt(PHONE_SENSOR_INTERVAL, defaultInterval);
-        bundle.putInt(PHONE_SENSOR_GYROSCOPE_INTERVAL, getConfig().getInt(PHONE_SENSOR_GYROSCOPE_INTERVAL, defaultInterval));
-        bundle.putInt(PHONE_SENSOR_MAGNETIC_FIELD_INTERVAL, getConfig().getInt(PHONE_SENSOR_MAGNETIC_FIELD_INTERVAL, defaultInterval));
-        bundle.putInt(PHONE_SENSOR_STEP_COUNT_INTERVAL, getConfig().getInt(PHONE_SENSOR_STEP_COUNT_INTERVAL, defaultInterval));
-        bundle.putInt(PHONE_SENSOR_ACCELERATION_INTERVAL, getConfig().getInt(PHONE_SENSOR_ACCELERATION_INTERVAL, defaultInterval));
-        bundle.putInt(PHONE_SENSOR_LIGHT_INTERVAL, getConfig().getInt(PHONE_SENSOR_LIGHT_INTERVAL, defaultInterval));
-        bundle.putInt(PHONE_SENSOR_BATTERY_INTERVAL_SECONDS, getConfig().getInt(PHONE_SENSOR_BATTERY_INTERVAL_SECONDS, PHONE_SENSOR_BATTERY_INTERVAL_DEFAULT_SECONDS));
+        for (int i = 0; i < SENSOR_CONFIG_NAMES.size(); i++) {
+            int sensorType = SENSOR_CONFIG_NAMES.keyAt(i);
+            putInt(bundle, config, sensorKey(sensorType, INTERVAL_SUFFIX), defaultInterval);
+            putInt(bundle, config, sensorKey(sensorType, BATCH_LATENCY_SUFFIX), defaultLatency);
+            putInt(bundle, config, sensorKey(sensorType, AGGREGATE_WINDOW_SUFFIX), defaultWindow);
+            putInt(bundle, config, sensorKey(sensorType, OUTPUT_INTERVAL_SUFFIX), defaultOutputInterval);
+            putFloat(bundle, config, sensorKey(sensorType, DEADBAND_ABSOLUTE_SUFFIX), defaultDeadbandAbsolute);
+            putFloat(bundle, config, sensorKey(sensorType, DEADBAND_RELATIVE_SUFFIX), defaultDeadbandRelative);
+            putInt(bundle, config, sensorKey(sensorType, DEADBAND_MAX_SILENCE_SUFFIX), defaultDeadbandMaxSilence);
+        }
+        putInt(bundle, config, PHONE_SENSOR_BATTERY_INTERVAL_SECONDS, PHONE_SENSOR_BATTERY_INTERVAL_DEFAULT_SECONDS);
+        putFloat(bundle, config, PHONE_SENSOR_BATTERY_LEVEL_CHANGE, PHONE_SENSOR_BATTERY_LEVEL_CHANGE_DEFAULT);
+        bundle.putBoolean(PHONE_SENSOR_STEPS_USE_DETECTOR, config.getBoolean(PHONE_SENSOR_STEPS_USE_DETECTOR, false));
+        bundle.putBoolean(PHONE_SENSOR_WAKELOCK_FREE, config.getBoolean(PHONE_SENSOR_WAKELOCK_FREE, false));
+        bundle.putBoolean(PHONE_SENSOR_MOTION_GATING, config.getBoolean(PHONE_SENSOR_MOTION_GATING, false));
+        putInt(bundle, config, PHONE_SENSOR_MOTION_GATING_STILL_DURATION_SECONDS, PHONE_SENSOR_MOTION_GATING_STILL_DURATION_DEFAULT_SECONDS);
+        putFloat(bundle, config, PHONE_SENSOR_MOTION_GATING_THRESHOLD, PHONE_SENSOR_MOTION_GATING_THRESHOLD_DEFAULT);
+        putInt(bundle, config, PHONE_SENSOR_BURST_PERIOD_SECONDS, PHONE_SENSOR_BURST_PERIOD_DEFAULT_SECONDS);
+        putInt(bundle, config, PHONE_SENSOR_BURST_DURATION_SECONDS, PHONE_SENSOR_BURST_DURATION_DEFAULT_SECONDS);
+        putInt(bundle, config, PHONE_SENSOR_BURST_INTERVAL, PHONE_SENSOR_BURST_INTERVAL_DEFAULT);
+        putInt(bundle, config, PHONE_SENSOR_IMU_RESAMPLE_INTERVAL, PHONE_SENSOR_IMU_RESAMPLE_INTERVAL_DEFAULT);
+        putInt(bundle, config, PHONE_SENSOR_ORIENTATION_INTERVAL, PHONE_SENSOR_ORIENTATION_INTERVAL_DEFAULT);
+        putInt(bundle, config, PHONE_SENSOR_QUEUE_CAPACITY, PHONE_SENSOR_QUEUE_CAPACITY_DEFAULT);
+        bundle.putString(PHONE_SENSOR_QUEUE_OVERFLOW, config.getString(PHONE_SENSOR_QUEUE_OVERFLOW, PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT));
+        RateProfile.configure(bundle, config, PHONE_SENSOR_PREFIX);
+    }
+
+    private static void putInt(Bundle bundle, RadarConfiguration config, String key, int defaultValue) {
+        bundle.putInt(key, config.getInt(key, defaultValue));
+    }
+
+    private static void putFloat(Bundle bundle, RadarConfiguration config, String key, float defaultValue) {
+        bundle.putFloat(key, config.getFloat(key, defaultValue));
     }
 
     @NonNull
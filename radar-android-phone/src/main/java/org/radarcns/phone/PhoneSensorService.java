@@ -19,6 +19,7 @@ package org.radarcns.phone;
 import android.hardware.Sensor;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import org.radarcns.android.device.DeviceService;
@@ -27,12 +28,31 @@ import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.TimeUnit;
 
-import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_ACCELERATION_INTERVAL;
-import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_GYROSCOPE_INTERVAL;
-import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_LIGHT_INTERVAL;
-import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_MAGNETIC_FIELD_INTERVAL;
-import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_STEP_COUNT_INTERVAL;
+import static org.radarcns.phone.PhoneSensorProvider.AGGREGATE_WINDOW_SUFFIX;
+import static org.radarcns.phone.PhoneSensorProvider.BATCH_LATENCY_SUFFIX;
+import static org.radarcns.phone.PhoneSensorProvider.DEADBAND_ABSOLUTE_SUFFIX;
+import static org.radarcns.phone.PhoneSensorProvider.DEADBAND_MAX_SILENCE_SUFFIX;
+import static org.radarcns.phone.PhoneSensorProvider.DEADBAND_RELATIVE_SUFFIX;
+import static org.radarcns.phone.PhoneSensorProvider.INTERVAL_SUFFIX;
+import static org.radarcns.phone.PhoneSensorProvider.OUTPUT_INTERVAL_SUFFIX;
 import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BATTERY_INTERVAL_SECONDS;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BURST_DURATION_SECONDS;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BURST_INTERVAL;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BURST_PERIOD_SECONDS;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_BATTERY_LEVEL_CHANGE;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_IMU_RESAMPLE_INTERVAL;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_MOTION_GATING;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_MOTION_GATING_STILL_DURATION_SECONDS;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_MOTION_GATING_THRESHOLD;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_ORIENTATION_INTERVAL;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_PREFIX;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_QUEUE_CAPACITY;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_QUEUE_OVERFLOW;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_STEPS_USE_DETECTOR;
+import static org.radarcns.phone.PhoneSensorProvider.PHONE_SENSOR_WAKELOCK_FREE;
+import static org.radarcns.phone.PhoneSensorProvider.SENSOR_CONFIG_NAMES;
+import static org.radarcns.phone.PhoneSensorProvider.sensorKey;
 
 /**
  * A service that manages the phone sensor manager and a TableDataHandler to send store the data of
@@ -42,12 +62,36 @@ public class PhoneSensorService extends DeviceService<PhoneState> {
     private static final Logger logger = LoggerFactory.getLogger(PhoneSensorService.class);
 
     private SparseIntArray sensorDelays;
+    private SparseIntArray sensorBatchLatencies;
+    private SparseIntArray sensorAggregateWindows;
+    private SparseIntArray sensorOutputIntervals;
+    private SparseArray<SensorDeadbandFilter.Thresholds> sensorDeadbands;
     private int batteryInterval;
+    private float batteryLevelChange;
+    private boolean wakeLockFree;
+    private boolean motionGating;
+    private int motionGatingStillDuration;
+    private float motionGatingThreshold;
+    private int burstPeriod;
+    private int burstDuration;
+    private int burstInterval;
+    private int imuResampleInterval;
+    private int orientationInterval;
+    private int queueCapacity;
+    private SensorSampleQueue.OverflowPolicy queuePolicy;
+    private int profileNightStartHour;
+    private int profileNightEndHour;
+    private int profileHysteresis;
+    private float[] profileIntervalFactors;
 
     @Override
     public void onCreate() {
         super.onCreate();
         sensorDelays = new SparseIntArray(5);
+        sensorBatchLatencies = new SparseIntArray(5);
+        sensorAggregateWindows = new SparseIntArray(5);
+        sensorOutputIntervals = new SparseIntArray(5);
+        sensorDeadbands = new SparseArray<>(5);
     }
 
     @Override
@@ -55,7 +99,19 @@ public class PhoneSensorService extends DeviceService<PhoneState> {
         logger.info("Creating PhoneSensorManager");
         PhoneSensorManager manager = new PhoneSensorManager(this, batteryInterval,
                 TimeUnit.SECONDS);
-        manager.setSensorDelays(sensorDelays);
+        manager.setWakeLockFree(wakeLockFree);
+        manager.setSampleQueues(queueCapacity, queuePolicy);
+        manager.setSensorDelays(sensorDelays, sensorBatchLatencies);
+        manager.setImuResampling(imuResampleInterval);
+        manager.setOrientationInterval(orientationInterval);
+        manager.setOutputIntervals(sensorOutputIntervals);
+        manager.setAggregateWindows(sensorAggregateWindows);
+        manager.setDeadbands(sensorDeadbands);
+        manager.setBatteryLevelChange(batteryLevelChange);
+        manager.setMotionGating(motionGating, motionGatingStillDuration, TimeUnit.SECONDS, motionGatingThreshold);
+        manager.setBurstSchedule(burstPeriod, burstDuration, TimeUnit.SECONDS, burstInterval);
+        manager.setRateProfiles(profileNightStartHour, profileNightEndHour, profileHysteresis,
+                TimeUnit.SECONDS, profileIntervalFactors);
         return manager;
     }
 
@@ -68,16 +124,68 @@ public class PhoneSensorService extends DeviceService<PhoneState> {
     @Override
     protected void onInvocation(@NonNull Bundle bundle) {
         super.onInvocation(bundle);
-        sensorDelays.put(Sensor.TYPE_ACCELEROMETER, bundle.getInt(PHONE_SENSOR_ACCELERATION_INTERVAL));
-        sensorDelays.put(Sensor.TYPE_MAGNETIC_FIELD, bundle.getInt(PHONE_SENSOR_MAGNETIC_FIELD_INTERVAL));
-        sensorDelays.put(Sensor.TYPE_GYROSCOPE, bundle.getInt(PHONE_SENSOR_GYROSCOPE_INTERVAL));
-        sensorDelays.put(Sensor.TYPE_LIGHT, bundle.getInt(PHONE_SENSOR_LIGHT_INTERVAL));
-        sensorDelays.put(Sensor.TYPE_STEP_COUNTER, bundle.getInt(PHONE_SENSOR_STEP_COUNT_INTERVAL));
+        for (int i = 0; i < SENSOR_CONFIG_NAMES.size(); i++) {
+            int sensorType = SENSOR_CONFIG_NAMES.keyAt(i);
+            sensorDelays.put(sensorType, bundle.getInt(sensorKey(sensorType, INTERVAL_SUFFIX)));
+            sensorBatchLatencies.put(sensorType, bundle.getInt(sensorKey(sensorType, BATCH_LATENCY_SUFFIX)));
+            sensorAggregateWindows.put(sensorType, bundle.getInt(sensorKey(sensorType, AGGREGATE_WINDOW_SUFFIX)));
+            sensorOutputIntervals.put(sensorType, bundle.getInt(sensorKey(sensorType, OUTPUT_INTERVAL_SUFFIX)));
+            sensorDeadbands.put(sensorType, new SensorDeadbandFilter.Thresholds(
+                    bundle.getFloat(sensorKey(sensorType, DEADBAND_ABSOLUTE_SUFFIX)),
+                    bundle.getFloat(sensorKey(sensorType, DEADBAND_RELATIVE_SUFFIX)),
+                    bundle.getInt(sensorKey(sensorType, DEADBAND_MAX_SILENCE_SUFFIX))));
+        }
+        // The step detector uses the step settings, and replaces the step counter if enabled
+        boolean useStepDetector = bundle.getBoolean(PHONE_SENSOR_STEPS_USE_DETECTOR);
+        int stepsInterval = sensorDelays.get(Sensor.TYPE_STEP_COUNTER);
+        sensorDelays.put(Sensor.TYPE_STEP_DETECTOR, useStepDetector ? stepsInterval : 0);
+        if (useStepDetector) {
+            sensorDelays.put(Sensor.TYPE_STEP_COUNTER, 0);
+        }
+        sensorBatchLatencies.put(Sensor.TYPE_STEP_DETECTOR, sensorBatchLatencies.get(Sensor.TYPE_STEP_COUNTER));
+        sensorAggregateWindows.put(Sensor.TYPE_STEP_DETECTOR, sensorAggregateWindows.get(Sensor.TYPE_STEP_COUNTER));
+        // The rotation vector is sampled at the orientation interval, batched like the gyroscope
+        orientationInterval = bundle.getInt(PHONE_SENSOR_ORIENTATION_INTERVAL);
+        sensorDelays.put(Sensor.TYPE_ROTATION_VECTOR, orientationInterval);
+        sensorBatchLatencies.put(Sensor.TYPE_ROTATION_VECTOR, sensorBatchLatencies.get(Sensor.TYPE_GYROSCOPE));
         batteryInterval = bundle.getInt(PHONE_SENSOR_BATTERY_INTERVAL_SECONDS);
+        batteryLevelChange = bundle.getFloat(PHONE_SENSOR_BATTERY_LEVEL_CHANGE);
+        wakeLockFree = bundle.getBoolean(PHONE_SENSOR_WAKELOCK_FREE);
+        motionGating = bundle.getBoolean(PHONE_SENSOR_MOTION_GATING);
+        motionGatingStillDuration = bundle.getInt(PHONE_SENSOR_MOTION_GATING_STILL_DURATION_SECONDS);
+        motionGatingThreshold = bundle.getFloat(PHONE_SENSOR_MOTION_GATING_THRESHOLD);
+        burstPeriod = bundle.getInt(PHONE_SENSOR_BURST_PERIOD_SECONDS);
+        burstDuration = bundle.getInt(PHONE_SENSOR_BURST_DURATION_SECONDS);
+        burstInterval = bundle.getInt(PHONE_SENSOR_BURST_INTERVAL);
+        imuResampleInterval = bundle.getInt(PHONE_SENSOR_IMU_RESAMPLE_INTERVAL);
+        queueCapacity = bundle.getInt(PHONE_SENSOR_QUEUE_CAPACITY);
+        String overflow = bundle.getString(PHONE_SENSOR_QUEUE_OVERFLOW, PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT);
+        try {
+            queuePolicy = SensorSampleQueue.OverflowPolicy.parse(overflow);
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Unknown sensor queue overflow policy '{}'; using {}", overflow, PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT);
+            queuePolicy = SensorSampleQueue.OverflowPolicy.parse(PHONE_SENSOR_QUEUE_OVERFLOW_DEFAULT);
+        }
+        profileNightStartHour = bundle.getInt(RateProfile.PHONE_PROFILE_NIGHT_START_HOUR);
+        profileNightEndHour = bundle.getInt(RateProfile.PHONE_PROFILE_NIGHT_END_HOUR);
+        profileHysteresis = bundle.getInt(RateProfile.PHONE_PROFILE_HYSTERESIS_SECONDS);
+        profileIntervalFactors = RateProfile.intervalFactors(bundle, PHONE_SENSOR_PREFIX);
         PhoneSensorManager manager = (PhoneSensorManager) getDeviceManager();
         if (manager != null) {
-            manager.setSensorDelays(sensorDelays);
+            manager.setWakeLockFree(wakeLockFree);
+            manager.setSampleQueues(queueCapacity, queuePolicy);
+            manager.setSensorDelays(sensorDelays, sensorBatchLatencies);
+            manager.setImuResampling(imuResampleInterval);
+            manager.setOrientationInterval(orientationInterval);
+            manager.setOutputIntervals(sensorOutputIntervals);
+            manager.setAggregateWindows(sensorAggregateWindows);
+            manager.setDeadbands(sensorDeadbands);
             manager.setBatteryUpdateInterval(batteryInterval, TimeUnit.SECONDS);
+            manager.setBatteryLevelChange(batteryLevelChange);
+            manager.setMotionGating(motionGating, motionGatingStillDuration, TimeUnit.SECONDS, motionGatingThreshold);
+            manager.setBurstSchedule(burstPeriod, burstDuration, TimeUnit.SECONDS, burstInterval);
+            manager.setRateProfiles(profileNightStartHour, profileNightEndHour, profileHysteresis,
+                    TimeUnit.SECONDS, profileIntervalFactors);
         }
     }
 }
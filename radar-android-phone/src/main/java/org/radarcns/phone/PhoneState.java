@@ -22,32 +22,53 @@ import org.radarcns.android.device.BaseDeviceState;
 import org.radarcns.android.device.DeviceStateCreator;
 
 /**
- * The status on a single point in time
+ * The status on a single point in time. Values are published without locking, so that the
+ * sensor thread never blocks on a status broadcast. Each value may only be set from a single
+ * thread.
  */
 public class PhoneState extends BaseDeviceState {
-    private float[] acceleration = {Float.NaN, Float.NaN, Float.NaN};
-    private float batteryLevel = Float.NaN;
-    private float light = Float.NaN;
+    // Acceleration is published with a sequence lock: the sequence number is odd while the
+    // acceleration is being written, and readers retry if it changed while reading.
+    private volatile int accelerationSequence;
+    private volatile float accelerationX = Float.NaN;
+    private volatile float accelerationY = Float.NaN;
+    private volatile float accelerationZ = Float.NaN;
+    // Orientation quaternion, published with a sequence lock like the acceleration
+    private volatile int orientationSequence;
+    private volatile float orientationW = Float.NaN;
+    private volatile float orientationX = Float.NaN;
+    private volatile float orientationY = Float.NaN;
+    private volatile float orientationZ = Float.NaN;
+    private volatile float batteryLevel = Float.NaN;
+    private volatile float light = Float.NaN;
+    private volatile boolean isWakeLockFree;
 
     public static final Creator<PhoneState> CREATOR = new DeviceStateCreator<>(PhoneState.class);
 
     @Override
-    public synchronized void writeToParcel(Parcel dest, int flags) {
+    public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
-        dest.writeFloat(this.acceleration[0]);
-        dest.writeFloat(this.acceleration[1]);
-        dest.writeFloat(this.acceleration[2]);
+        float[] acceleration = getAcceleration();
+        dest.writeFloat(acceleration[0]);
+        dest.writeFloat(acceleration[1]);
+        dest.writeFloat(acceleration[2]);
+        float[] orientation = getOrientation();
+        dest.writeFloat(orientation[0]);
+        dest.writeFloat(orientation[1]);
+        dest.writeFloat(orientation[2]);
+        dest.writeFloat(orientation[3]);
         dest.writeFloat(this.batteryLevel);
         dest.writeFloat(this.light);
+        dest.writeByte(this.isWakeLockFree ? (byte) 1 : (byte) 0);
     }
 
     public void updateFromParcel(Parcel in) {
         super.updateFromParcel(in);
-        acceleration[0] = in.readFloat();
-        acceleration[1] = in.readFloat();
-        acceleration[2] = in.readFloat();
+        setAcceleration(in.readFloat(), in.readFloat(), in.readFloat());
+        setOrientation(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
         batteryLevel = in.readFloat();
         light = in.readFloat();
+        isWakeLockFree = in.readByte() == 1;
     }
 
     @Override
@@ -55,15 +76,57 @@ public class PhoneState extends BaseDeviceState {
         return true;
     }
 
+    /** Consistent copy of the last acceleration. */
     @Override
     public float[] getAcceleration() {
-        return acceleration;
+        float[] result = new float[3];
+        int sequence;
+        do {
+            sequence = accelerationSequence;
+            result[0] = accelerationX;
+            result[1] = accelerationY;
+            result[2] = accelerationZ;
+        } while ((sequence & 1) != 0 || sequence != accelerationSequence);
+        return result;
     }
 
-    public synchronized void setAcceleration(float x, float y, float z) {
-        this.acceleration[0] = x;
-        this.acceleration[1] = y;
-        this.acceleration[2] = z;
+    /** Set the acceleration. Only call from a single thread. */
+    public void setAcceleration(float x, float y, float z) {
+        int sequence = accelerationSequence;
+        accelerationSequence = sequence + 1;
+        accelerationX = x;
+        accelerationY = y;
+        accelerationZ = z;
+        accelerationSequence = sequence + 2;
+    }
+
+    /**
+     * Consistent copy of the last orientation, as quaternion {@code (w, x, y, z)} that rotates
+     * device coordinates into east-north-up world coordinates. Values are NaN if the orientation
+     * is not computed.
+     */
+    public float[] getOrientation() {
+        float[] result = new float[4];
+        int sequence;
+        do {
+            sequence = orientationSequence;
+            result[0] = orientationW;
+            result[1] = orientationX;
+            result[2] = orientationY;
+            result[3] = orientationZ;
+        } while ((sequence & 1) != 0 || sequence != orientationSequence);
+        return result;
+    }
+
+    /** Set the orientation quaternion. Only call from a single thread. */
+    public void setOrientation(float w, float x, float y, float z) {
+        int sequence = orientationSequence;
+        orientationSequence = sequence + 1;
+        orientationW = w;
+        orientationX = x;
+        orientationY = y;
+        orientationZ = z;
+        orientationSequence = sequence + 2;
     }
 
     @Override
@@ -71,7 +134,28 @@ public class PhoneState extends BaseDeviceState {
         return batteryLevel;
     }
 
-    public synchronized void setBatteryLevel(float batteryLevel) {
+    public void setBatteryLevel(float batteryLevel) {
         this.batteryLevel = batteryLevel;
     }
+
+    /** Last measured illuminance in lux. */
+    public float getLight() {
+        return light;
+    }
+
+    public void setLight(float light) {
+        this.light = light;
+    }
+
+    /**
+     * Whether sensors are collected without holding a wake lock for the whole session, relying
+     * on wake-up sensors and hardware batching instead.
+     */
+    public boolean isWakeLockFree() {
+        return isWakeLockFree;
+    }
+
+    public void setWakeLockFree(boolean wakeLockFree) {
+        isWakeLockFree = wakeLockFree;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import android.os.Bundle;
+
+import org.radarcns.android.RadarConfiguration;
+
+/**
+ * Named profiles of data collection rates, selected by the context of the phone. Each profile
+ * has an interval factor that the configured sampling intervals are multiplied with. Profiles
+ * are listed from lowest to highest priority.
+ */
+enum RateProfile {
+    DEFAULT("default"),
+    NIGHT("night"),
+    SCREEN_ON("screen_on"),
+    CHARGING("charging");
+
+    static final String PHONE_PROFILE_NIGHT_START_HOUR = "phone_profile_night_start_hour";
+    static final String PHONE_PROFILE_NIGHT_END_HOUR = "phone_profile_night_end_hour";
+    static final String PHONE_PROFILE_HYSTERESIS_SECONDS = "phone_profile_hysteresis_seconds";
+    static final int PHONE_PROFILE_NIGHT_START_HOUR_DEFAULT = 23;
+    static final int PHONE_PROFILE_NIGHT_END_HOUR_DEFAULT = 7;
+    static final int PHONE_PROFILE_HYSTERESIS_DEFAULT_SECONDS = 60;
+
+    private final String configName;
+
+    RateProfile(String configName) {
+        this.configName = configName;
+    }
+
+    /**
+     * Configuration key of the interval factor of this profile. Intervals are multiplied by this
+     * factor while the profile is active. A factor of zero disables data collection.
+     * @param prefix key prefix of the data source, e.g. {@code phone_sensor_}.
+     */
+    String intervalFactorKey(String prefix) {
+        return prefix + "profile_" + configName + "_interval_factor";
+    }
+
+    /**
+     * Put the rate profile configuration in a bundle.
+     * @param prefix key prefix of the interval factors of the data source.
+     */
+    static void configure(Bundle bundle, RadarConfiguration config, String prefix) {
+        bundle.putInt(PHONE_PROFILE_NIGHT_START_HOUR, config.getInt(PHONE_PROFILE_NIGHT_START_HOUR, PHONE_PROFILE_NIGHT_START_HOUR_DEFAULT));
+        bundle.putInt(PHONE_PROFILE_NIGHT_END_HOUR, config.getInt(PHONE_PROFILE_NIGHT_END_HOUR, PHONE_PROFILE_NIGHT_END_HOUR_DEFAULT));
+        bundle.putInt(PHONE_PROFILE_HYSTERESIS_SECONDS, config.getInt(PHONE_PROFILE_HYSTERESIS_SECONDS, PHONE_PROFILE_HYSTERESIS_DEFAULT_SECONDS));
+        for (RateProfile profile : values()) {
+            String key = profile.intervalFactorKey(prefix);
+            bundle.putFloat(key, config.getFloat(key, 1f));
+        }
+    }
+
+    /**
+     * Interval factors of all profiles from a bundle, indexed by profile ordinal.
+     * @param prefix key prefix of the interval factors of the data source.
+     */
+    static float[] intervalFactors(Bundle bundle, String prefix) {
+        RateProfile[] profiles = values();
+        float[] factors = new float[profiles.length];
+        for (RateProfile profile : profiles) {
+            factors[profile.ordinal()] = bundle.getFloat(profile.intervalFactorKey(prefix), 1f);
+        }
+        return factors;
+    }
+}
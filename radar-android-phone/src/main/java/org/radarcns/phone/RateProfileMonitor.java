@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import static android.content.Context.ALARM_SERVICE;
+import static android.content.Context.POWER_SERVICE;
+
+/**
+ * Tracks the screen state, plug state and time of day, and reports the selected
+ * {@link RateProfile}. Screen and plug changes are received as broadcasts. The start and end of
+ * the night are signalled with an alarm that does not wake up the device. All methods and
+ * listener calls run on the main thread.
+ */
+class RateProfileMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(RateProfileMonitor.class);
+
+    private final Context context;
+    private final String updateAction;
+    private final Listener listener;
+    private final Handler handler;
+    private final AlarmManager alarmManager;
+    private final PendingIntent updateIntent;
+    private final Runnable updateRunnable = this::update;
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_SCREEN_ON.equals(action)) {
+                isScreenOn = true;
+            } else if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                isScreenOn = false;
+            } else if (Intent.ACTION_POWER_CONNECTED.equals(action)) {
+                isPlugged = true;
+            } else if (Intent.ACTION_POWER_DISCONNECTED.equals(action)) {
+                isPlugged = false;
+            }
+            update();
+        }
+    };
+
+    private RateProfileSelector selector;
+    private RateProfile reportedProfile = RateProfile.DEFAULT;
+    private int nightStartHour;
+    private int nightEndHour;
+    private long hysteresisMillis;
+    private boolean isScreenOn;
+    private boolean isPlugged;
+    private boolean isStarted;
+
+    /**
+     * Rate profile monitor.
+     * @param context context to receive broadcasts with.
+     * @param requestCode unique request code of the alarm of this monitor.
+     * @param listener listener to profile changes.
+     */
+    RateProfileMonitor(Context context, int requestCode, Listener listener) {
+        this.context = context;
+        this.listener = listener;
+        this.updateAction = "org.radarcns.phone.RateProfileMonitor.ACTION_UPDATE." + requestCode;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.alarmManager = (AlarmManager) context.getSystemService(ALARM_SERVICE);
+        Intent intent = new Intent(updateAction).setPackage(context.getPackageName());
+        this.updateIntent = PendingIntent.getBroadcast(context, requestCode, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        this.nightStartHour = RateProfile.PHONE_PROFILE_NIGHT_START_HOUR_DEFAULT;
+        this.nightEndHour = RateProfile.PHONE_PROFILE_NIGHT_END_HOUR_DEFAULT;
+        this.hysteresisMillis = TimeUnit.SECONDS.toMillis(RateProfile.PHONE_PROFILE_HYSTERESIS_DEFAULT_SECONDS);
+        this.selector = new RateProfileSelector(nightStartHour, nightEndHour, hysteresisMillis);
+    }
+
+    /**
+     * Set the schedule of the night and the minimum time to keep a profile. The profile is
+     * selected again immediately.
+     */
+    void setSchedule(int nightStartHour, int nightEndHour, long hysteresis, TimeUnit unit) {
+        long hysteresisMillis = unit.toMillis(hysteresis);
+        if (nightStartHour == this.nightStartHour && nightEndHour == this.nightEndHour
+                && hysteresisMillis == this.hysteresisMillis) {
+            return;
+        }
+        this.nightStartHour = nightStartHour;
+        this.nightEndHour = nightEndHour;
+        this.hysteresisMillis = hysteresisMillis;
+        selector = new RateProfileSelector(nightStartHour, nightEndHour, hysteresisMillis);
+        update();
+    }
+
+    /** Start monitoring the phone context. */
+    void start() {
+        if (isStarted) {
+            return;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(POWER_SERVICE);
+        isScreenOn = powerManager == null || powerManager.isInteractive();
+        Intent batteryIntent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        isPlugged = batteryIntent != null
+                && batteryIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) > 0;
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(updateAction);
+        context.registerReceiver(receiver, filter);
+        isStarted = true;
+        update();
+    }
+
+    /** Stop monitoring the phone context. */
+    void stop() {
+        if (!isStarted) {
+            return;
+        }
+        isStarted = false;
+        context.unregisterReceiver(receiver);
+        handler.removeCallbacks(updateRunnable);
+        if (alarmManager != null) {
+            alarmManager.cancel(updateIntent);
+        }
+    }
+
+    /** Currently selected profile. */
+    RateProfile getProfile() {
+        return reportedProfile;
+    }
+
+    private void update() {
+        if (!isStarted) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        int minuteOfDay = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+
+        selector.update(now, isScreenOn, isPlugged, minuteOfDay);
+        if (selector.getProfile() != reportedProfile) {
+            reportedProfile = selector.getProfile();
+            logger.info("Selected rate profile {}", reportedProfile);
+            listener.onRateProfileChanged(reportedProfile);
+        }
+
+        handler.removeCallbacks(updateRunnable);
+        long pendingTime = selector.getPendingUpdateTime();
+        if (pendingTime >= 0) {
+            handler.postDelayed(updateRunnable, pendingTime - now);
+        }
+
+        if (alarmManager != null) {
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.add(Calendar.MINUTE, selector.minutesUntilNightChange(minuteOfDay));
+            alarmManager.set(AlarmManager.RTC, calendar.getTimeInMillis(), updateIntent);
+        }
+    }
+
+    /** Listener to rate profile changes. */
+    interface Listener {
+        void onRateProfileChanged(RateProfile profile);
+    }
+}
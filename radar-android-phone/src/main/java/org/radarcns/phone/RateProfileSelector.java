@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Selects the rate profile from the phone context. The charging profile has the highest
+ * priority, then the screen-on profile, then the night profile. To avoid flapping, a profile is
+ * kept for at least the hysteresis time after it was selected; a change in that time is only
+ * applied when it ends. This class is not thread-safe.
+ */
+class RateProfileSelector {
+    private final int nightStartMinute;
+    private final int nightEndMinute;
+    private final long hysteresisMillis;
+
+    private RateProfile profile = RateProfile.DEFAULT;
+    private long profileTime;
+    private boolean hasProfileTime;
+    private boolean isPending;
+
+    /**
+     * Selector with given night and hysteresis.
+     * @param nightStartHour hour of the day that the night starts.
+     * @param nightEndHour hour of the day that the night ends. If equal to the start hour, there
+     *                     is no night.
+     * @param hysteresisMillis minimum time to keep a profile.
+     */
+    RateProfileSelector(int nightStartHour, int nightEndHour, long hysteresisMillis) {
+        this.nightStartMinute = positiveModulo(nightStartHour, 24) * 60;
+        this.nightEndMinute = positiveModulo(nightEndHour, 24) * 60;
+        this.hysteresisMillis = hysteresisMillis;
+    }
+
+    /**
+     * Update the profile from the current context.
+     * @param time current time in milliseconds.
+     * @param isScreenOn whether the screen is on.
+     * @param isPlugged whether the phone is plugged in.
+     * @param minuteOfDay local minute of the day, from 0 to 1439.
+     * @return whether the profile changed.
+     */
+    boolean update(long time, boolean isScreenOn, boolean isPlugged, int minuteOfDay) {
+        RateProfile candidate;
+        if (isPlugged) {
+            candidate = RateProfile.CHARGING;
+        } else if (isScreenOn) {
+            candidate = RateProfile.SCREEN_ON;
+        } else if (isNight(minuteOfDay)) {
+            candidate = RateProfile.NIGHT;
+        } else {
+            candidate = RateProfile.DEFAULT;
+        }
+        if (candidate == profile) {
+            isPending = false;
+            return false;
+        }
+        if (hasProfileTime && time - profileTime < hysteresisMillis) {
+            isPending = true;
+            return false;
+        }
+        profile = candidate;
+        profileTime = time;
+        hasProfileTime = true;
+        isPending = false;
+        return true;
+    }
+
+    /** Whether it is night at given local minute of the day. */
+    boolean isNight(int minuteOfDay) {
+        if (nightStartMinute < nightEndMinute) {
+            return minuteOfDay >= nightStartMinute && minuteOfDay < nightEndMinute;
+        } else if (nightStartMinute > nightEndMinute) {
+            return minuteOfDay >= nightStartMinute || minuteOfDay < nightEndMinute;
+        } else {
+            return false;
+        }
+    }
+
+    /** Minutes from given local minute of the day until the night starts or ends. */
+    int minutesUntilNightChange(int minuteOfDay) {
+        int untilStart = positiveModulo(nightStartMinute - minuteOfDay - 1, 24 * 60) + 1;
+        int untilEnd = positiveModulo(nightEndMinute - minuteOfDay - 1, 24 * 60) + 1;
+        return Math.min(untilStart, untilEnd);
+    }
+
+    private static int positiveModulo(int value, int modulus) {
+        return ((value % modulus) + modulus) % modulus;
+    }
+
+    RateProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Time in milliseconds at which a profile change that is held back by the hysteresis may be
+     * applied, or -1 if no change is pending.
+     */
+    long getPendingUpdateTime() {
+        return isPending ? profileTime + hysteresisMillis : -1L;
+    }
+}
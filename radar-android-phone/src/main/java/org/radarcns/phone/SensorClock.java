@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps {@link android.hardware.SensorEvent#timestamp} values to wall clock time. Sensor event
+ * timestamps use the same base as {@link SystemClock#elapsedRealtimeNanos()}, so they reflect the
+ * time the sample was acquired, even when delivery was delayed by batching or queueing. The
+ * offset between the two clocks is refreshed periodically, so that wall clock adjustments are
+ * picked up. Converting a timestamp otherwise only takes arithmetic. This class is not
+ * thread-safe.
+ */
+class SensorClock {
+    static final long DEFAULT_REFRESH_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    private final Clock clock;
+    private final long refreshIntervalNanos;
+    private long offsetNanos;
+    private long lastRefreshNanos;
+    private boolean isInitialized;
+
+    /** Sensor clock based on the system clocks. */
+    SensorClock() {
+        this(SYSTEM_CLOCK, DEFAULT_REFRESH_INTERVAL_NANOS);
+    }
+
+    /**
+     * Sensor clock based on given clocks.
+     * @param clock source of wall clock and elapsed realtime.
+     * @param refreshIntervalNanos sensor time interval after which to recompute the clock offset.
+     */
+    SensorClock(Clock clock, long refreshIntervalNanos) {
+        this.clock = clock;
+        this.refreshIntervalNanos = refreshIntervalNanos;
+    }
+
+    /**
+     * Wall clock time of a sensor timestamp.
+     * @param sensorTimeNanos sensor event timestamp in nanoseconds of elapsed realtime.
+     * @return seconds since the Unix epoch.
+     */
+    double toEpochSeconds(long sensorTimeNanos) {
+        if (!isInitialized || sensorTimeNanos - lastRefreshNanos >= refreshIntervalNanos) {
+            refresh();
+        }
+        return (sensorTimeNanos + offsetNanos) / 1_000_000_000d;
+    }
+
+    /** Recompute the offset between elapsed realtime and wall clock time. */
+    void refresh() {
+        long elapsedNanos = clock.elapsedRealtimeNanos();
+        offsetNanos = TimeUnit.MILLISECONDS.toNanos(clock.currentTimeMillis()) - elapsedNanos;
+        lastRefreshNanos = elapsedNanos;
+        isInitialized = true;
+    }
+
+    /** Source of the current time. */
+    interface Clock {
+        /** Wall clock time in milliseconds since the Unix epoch. */
+        long currentTimeMillis();
+        /** Nanoseconds since boot, including time spent in sleep. */
+        long elapsedRealtimeNanos();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Filter stage that only passes samples that changed significantly since the last sample that
+ * was passed. A change is significant if on any axis it exceeds both the absolute threshold and
+ * the relative threshold times the last passed value. To show that the sensor is still active, a
+ * sample is always passed if no sample was passed for the maximum silence time. This class is
+ * not thread-safe.
+ */
+class SensorDeadbandFilter implements SensorRingBuffer.SampleConsumer {
+    private final float absoluteThreshold;
+    private final float relativeThreshold;
+    private final long maxSilence;
+    private final SensorRingBuffer.SampleConsumer target;
+
+    private final float[] last = new float[3];
+    private long lastTime;
+    private boolean hasLast;
+    private long receivedCount;
+    private long passedCount;
+
+    /**
+     * Filter with given thresholds.
+     * @param thresholds thresholds of a significant change.
+     * @param maxSilence maximum time between passed samples, in the same unit as the sample times.
+     *                   If zero or less, there is no maximum.
+     * @param target consumer of the samples that pass the filter.
+     */
+    SensorDeadbandFilter(Thresholds thresholds, long maxSilence,
+            SensorRingBuffer.SampleConsumer target) {
+        this.absoluteThreshold = thresholds.getAbsolute();
+        this.relativeThreshold = thresholds.getRelative();
+        this.maxSilence = maxSilence;
+        this.target = target;
+    }
+
+    @Override
+    public void accept(long time, float x, float y, float z) {
+        receivedCount++;
+        if (hasLast && (maxSilence <= 0 || time - lastTime < maxSilence)
+                && !isSignificant(0, x) && !isSignificant(1, y) && !isSignificant(2, z)) {
+            return;
+        }
+        hasLast = true;
+        lastTime = time;
+        last[0] = x;
+        last[1] = y;
+        last[2] = z;
+        passedCount++;
+        target.accept(time, x, y, z);
+    }
+
+    private boolean isSignificant(int axis, float value) {
+        float change = Math.abs(value - last[axis]);
+        return change > absoluteThreshold && change > relativeThreshold * Math.abs(last[axis]);
+    }
+
+    /** Number of samples received by the filter. */
+    long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /** Number of samples passed by the filter. */
+    long getPassedCount() {
+        return passedCount;
+    }
+
+    /** Thresholds of a significant change. */
+    static final class Thresholds {
+        private final float absolute;
+        private final float relative;
+        private final int maxSilenceMillis;
+
+        /**
+         * Thresholds of a deadband filter.
+         * @param absolute minimum absolute change, in the unit of the sensor values.
+         * @param relative minimum change relative to the last passed value, e.g. 0.1 for 10%.
+         * @param maxSilenceMillis maximum time between passed samples in milliseconds, zero for
+         *                         no maximum.
+         */
+        Thresholds(float absolute, float relative, int maxSilenceMillis) {
+            this.absolute = absolute;
+            this.relative = relative;
+            this.maxSilenceMillis = maxSilenceMillis;
+        }
+
+        float getAbsolute() {
+            return absolute;
+        }
+
+        float getRelative() {
+            return relative;
+        }
+
+        int getMaxSilenceMillis() {
+            return maxSilenceMillis;
+        }
+
+        /** Whether any filtering should take place with these thresholds. */
+        boolean isEnabled() {
+            return absolute > 0f || relative > 0f || maxSilenceMillis > 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Thresholds other = (Thresholds) o;
+            return absolute == other.absolute && relative == other.relative
+                    && maxSilenceMillis == other.maxSilenceMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(absolute);
+            result = 31 * result + Float.floatToIntBits(relative);
+            return 31 * result + maxSilenceMillis;
+        }
+    }
+}
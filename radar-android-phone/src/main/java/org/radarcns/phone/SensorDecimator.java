@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Filter stage that decimates samples to an exact output rate, independent of the rate at which
+ * the sensor delivers them. Samples are first low-pass filtered to prevent aliasing, with a
+ * cascade of exponential filters that takes the actual time between samples into account. The
+ * filtered signal is then sampled at output times that are multiples of the output interval,
+ * interpolating between the filtered values around each output time. The cut-off frequency is
+ * half the Nyquist frequency of the output rate, which delays the output by a bit more than one
+ * output interval. After a gap in the input, the filter is restarted. For sensors that only
+ * report changes, a shorter gap means that the value did not change, so the last value is output
+ * for the output times in the gap. This class does not allocate memory per sample and is not
+ * thread-safe.
+ */
+class SensorDecimator implements SensorRingBuffer.SampleConsumer {
+    private static final int STAGES = 2;
+
+    private final long outputInterval;
+    private final long maxGap;
+    private final boolean holdGaps;
+    private final double timeConstant;
+    private final SensorRingBuffer.SampleConsumer target;
+
+    // filter state per stage and axis
+    private final float[] state = new float[STAGES * 3];
+    // filter output at the last sample
+    private final float[] last = new float[3];
+    private long lastTime;
+    private boolean hasLast;
+    private long nextTime;
+    private long inputCount;
+    private long outputCount;
+
+    /**
+     * Decimator with given output rate.
+     * @param outputInterval time between output samples, in the unit of the sample times.
+     * @param maxGap maximum time between input samples, in the unit of the sample times. After a
+     *               longer gap, the filter is restarted and no samples are output for the gap.
+     * @param holdGaps whether the sensor only reports changes, so that the last value is output
+     *                 for the output times in a gap that is not longer than the maximum gap.
+     * @param target consumer of the decimated samples.
+     */
+    SensorDecimator(long outputInterval, long maxGap, boolean holdGaps,
+            SensorRingBuffer.SampleConsumer target) {
+        if (outputInterval <= 0) {
+            throw new IllegalArgumentException("Output interval must be positive");
+        }
+        this.outputInterval = outputInterval;
+        this.maxGap = maxGap;
+        this.holdGaps = holdGaps;
+        // cut-off frequency 1 / (4 * outputInterval)
+        this.timeConstant = 2d * outputInterval / Math.PI;
+        this.target = target;
+    }
+
+    @Override
+    public void accept(long time, float x, float y, float z) {
+        inputCount++;
+        if (!hasLast || time - lastTime > maxGap) {
+            restart(time, x, y, z);
+            return;
+        }
+        if (time <= lastTime) {
+            // out of order sample
+            return;
+        }
+        if (holdGaps) {
+            // the value did not change until this sample
+            while (nextTime < time) {
+                target.accept(nextTime, last[0], last[1], last[2]);
+                outputCount++;
+                nextTime += outputInterval;
+            }
+        }
+        long dt = time - lastTime;
+        float alpha = (float) (1d - Math.exp(-dt / timeConstant));
+        float newX = filter(0, x, alpha);
+        float newY = filter(1, y, alpha);
+        float newZ = filter(2, z, alpha);
+
+        while (nextTime <= time) {
+            float f = (float) ((double) (nextTime - lastTime) / dt);
+            target.accept(nextTime,
+                    last[0] + (newX - last[0]) * f,
+                    last[1] + (newY - last[1]) * f,
+                    last[2] + (newZ - last[2]) * f);
+            outputCount++;
+            nextTime += outputInterval;
+        }
+        last[0] = newX;
+        last[1] = newY;
+        last[2] = newZ;
+        lastTime = time;
+    }
+
+    /** Pass a value of one axis through all filter stages. */
+    private float filter(int axis, float value, float alpha) {
+        for (int stage = 0; stage < STAGES; stage++) {
+            int i = stage * 3 + axis;
+            state[i] += alpha * (value - state[i]);
+            value = state[i];
+        }
+        return value;
+    }
+
+    private void restart(long time, float x, float y, float z) {
+        for (int stage = 0; stage < STAGES; stage++) {
+            state[stage * 3] = x;
+            state[stage * 3 + 1] = y;
+            state[stage * 3 + 2] = z;
+        }
+        last[0] = x;
+        last[1] = y;
+        last[2] = z;
+        lastTime = time;
+        hasLast = true;
+        long remainder = time % outputInterval;
+        if (remainder == 0) {
+            target.accept(time, x, y, z);
+            outputCount++;
+            nextTime = time + outputInterval;
+        } else {
+            nextTime = time - remainder + (remainder > 0 ? outputInterval : 0);
+        }
+    }
+
+    long getOutputInterval() {
+        return outputInterval;
+    }
+
+    long getMaxGap() {
+        return maxGap;
+    }
+
+    /** Number of samples received. */
+    long getInputCount() {
+        return inputCount;
+    }
+
+    /** Number of samples output. */
+    long getOutputCount() {
+        return outputCount;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Fixed-capacity ring buffer of sensor samples with up to three axes. Samples are stored in
+ * primitive arrays, so adding a sample does not allocate any memory. This class is not thread-safe.
+ */
+class SensorRingBuffer {
+    private final long[] times;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final int mask;
+    private int start;
+    private int size;
+
+    /**
+     * Ring buffer that can hold at least given number of samples.
+     * @param minimumCapacity minimum number of samples to hold, rounded up to a power of two.
+     */
+    SensorRingBuffer(int minimumCapacity) {
+        if (minimumCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        int capacity = Integer.highestOneBit(minimumCapacity);
+        if (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+        times = new long[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Add a sample to the end of the buffer.
+     * @return whether the sample was added, false if the buffer was full.
+     */
+    boolean add(long time, float x, float y, float z) {
+        if (size == times.length) {
+            return false;
+        }
+        int index = (start + size) & mask;
+        this.times[index] = time;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        size++;
+        return true;
+    }
+
+    /** Pass all samples, oldest first, to given consumer and remove them from the buffer. */
+    void drain(SampleConsumer consumer) {
+        while (size > 0) {
+            consumer.accept(times[start], x[start], y[start], z[start]);
+            start = (start + 1) & mask;
+            size--;
+        }
+        start = 0;
+    }
+
+    /** Remove all samples without processing them. */
+    void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    /** Remove the oldest sample, if any. */
+    void removeFirst() {
+        if (size > 0) {
+            start = (start + 1) & mask;
+            size--;
+        }
+    }
+
+    /** Time of the sample at given index, counting from the oldest sample. */
+    long getTime(int index) {
+        return times[(start + index) & mask];
+    }
+
+    /** First axis value of the sample at given index, counting from the oldest sample. */
+    float getX(int index) {
+        return x[(start + index) & mask];
+    }
+
+    /** Second axis value of the sample at given index, counting from the oldest sample. */
+    float getY(int index) {
+        return y[(start + index) & mask];
+    }
+
+    /** Third axis value of the sample at given index, counting from the oldest sample. */
+    float getZ(int index) {
+        return z[(start + index) & mask];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == times.length;
+    }
+
+    int capacity() {
+        return times.length;
+    }
+
+    /** Consumer of a single buffered sample. */
+    interface SampleConsumer {
+        /**
+         * Process a sample.
+         * @param time sample time, in the unit it was added with
+         * @param x first axis value
+         * @param y second axis value, zero for single-value sensors
+         * @param z third axis value, zero for single-value sensors
+         */
+        void accept(long time, float x, float y, float z);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue of sensor samples between a single producer thread and a single
+ * consumer thread. Samples are stored in primitive arrays, so neither adding nor removing a
+ * sample allocates memory or takes a lock. If the queue is full, the overflow policy decides
+ * whether the oldest sample is dropped, the new sample is dropped, or the producer waits for the
+ * consumer. Dropped samples are counted.
+ *
+ * <p>Only one thread may call {@link #offer(long, float, float, float)} and only one other thread
+ * may call {@link #drain(SensorRingBuffer.SampleConsumer)}. To drop the oldest sample, the
+ * producer takes it from the consumer by advancing the read position. The consumer therefore
+ * claims each sample with a compare-and-set after reading it, and discards what it read if the
+ * producer took that sample first.
+ */
+class SensorSampleQueue {
+    private static final long BLOCK_PARK_NANOS = 100_000L;
+
+    private final long[] times;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+    private final int mask;
+    private final long blockTimeoutNanos;
+    // Read position, advanced by the consumer, or by the producer when dropping the oldest sample
+    private final AtomicLong head = new AtomicLong();
+    // Write position, only advanced by the producer. Writing it publishes the sample.
+    private volatile long tail;
+    private volatile OverflowPolicy policy;
+    // Counters, only written by the producer
+    private volatile long droppedCount;
+    private volatile long blockedCount;
+
+    /**
+     * Queue that can hold at least given number of samples.
+     * @param minimumCapacity minimum number of samples to hold, rounded up to a power of two.
+     * @param policy what to do when the queue is full.
+     * @param blockTimeoutNanos maximum time that the producer waits for space with the
+     *                          {@link OverflowPolicy#BLOCK} policy, after which the new sample
+     *                          is dropped.
+     */
+    SensorSampleQueue(int minimumCapacity, OverflowPolicy policy, long blockTimeoutNanos) {
+        if (minimumCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        int capacity = Integer.highestOneBit(minimumCapacity);
+        if (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+        times = new long[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        mask = capacity - 1;
+        this.policy = policy;
+        this.blockTimeoutNanos = blockTimeoutNanos;
+    }
+
+    /**
+     * Add a sample to the end of the queue. Only call from the producer thread.
+     * @return whether the sample was added, false if it was dropped.
+     */
+    boolean offer(long time, float x, float y, float z) {
+        long t = tail;
+        if (t - head.get() > mask) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    droppedCount++;
+                    return false;
+                case BLOCK:
+                    blockedCount++;
+                    if (!awaitSpace(t)) {
+                        droppedCount++;
+                        return false;
+                    }
+                    break;
+                default:
+                    long h = head.get();
+                    // if the consumer took the oldest sample in the meantime, there is space
+                    if (t - h > mask && head.compareAndSet(h, h + 1)) {
+                        droppedCount++;
+                    }
+                    break;
+            }
+        }
+        int index = (int) t & mask;
+        this.times[index] = time;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        tail = t + 1;
+        return true;
+    }
+
+    /** Wait until the consumer makes space, or until the block timeout passes. */
+    private boolean awaitSpace(long t) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (t - head.get() > mask) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Pass the samples in the queue, oldest first, to given consumer and remove them. Samples
+     * that are added while draining are left for the next drain. Only call from the consumer
+     * thread.
+     * @return number of samples passed to the consumer.
+     */
+    int drain(SensorRingBuffer.SampleConsumer consumer) {
+        long end = tail;
+        int count = 0;
+        long h;
+        while ((h = head.get()) < end) {
+            int index = (int) h & mask;
+            long time = times[index];
+            float vx = x[index];
+            float vy = y[index];
+            float vz = z[index];
+            if (head.compareAndSet(h, h + 1)) {
+                consumer.accept(time, vx, vy, vz);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Approximate number of samples in the queue. */
+    int size() {
+        return (int) Math.max(tail - head.get(), 0L);
+    }
+
+    int capacity() {
+        return times.length;
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /** Set what to do when the queue is full. This may be called from any thread. */
+    void setPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    /** Number of samples that were dropped because the queue was full. */
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /** Number of samples for which the producer had to wait for space. */
+    long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /** What to do with a new sample when the queue is full. */
+    enum OverflowPolicy {
+        /** Drop the oldest sample in the queue to make space. */
+        DROP_OLDEST,
+        /** Drop the new sample. */
+        DROP_NEWEST,
+        /** Wait for the consumer to make space, up to a timeout. */
+        BLOCK;
+
+        /**
+         * Policy with given configuration name, like {@code drop_oldest}.
+         * @throws IllegalArgumentException if no policy has that name.
+         */
+        static OverflowPolicy parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.US));
+        }
+    }
+}
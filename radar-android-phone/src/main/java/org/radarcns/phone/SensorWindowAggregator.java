@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Computes streaming statistics of tri-axial samples over consecutive time windows: the mean of
+ * each axis, and the mean and variance of the vector magnitude. Means and variances are updated
+ * incrementally with Welford's algorithm, so they remain numerically stable for long windows. A window is completed when a sample arrives past its end, or when
+ * {@link #flush()} is called. This class is not thread-safe.
+ */
+class SensorWindowAggregator implements SensorRingBuffer.SampleConsumer {
+    private final long windowLength;
+    private final WindowListener listener;
+
+    private long windowStart;
+    private int count;
+    private final double[] mean = new double[3];
+    private double magnitudeMean;
+    private double magnitudeM2;
+
+    /**
+     * Aggregator with fixed window length.
+     * @param windowLength window length, in the same unit as the sample times.
+     * @param listener listener to pass completed windows to.
+     */
+    SensorWindowAggregator(long windowLength, WindowListener listener) {
+        if (windowLength <= 0) {
+            throw new IllegalArgumentException("Window length must be positive");
+        }
+        this.windowLength = windowLength;
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(long time, float x, float y, float z) {
+        if (count > 0 && time - windowStart >= windowLength) {
+            flush();
+        }
+        if (count == 0) {
+            windowStart = time;
+        }
+        count++;
+        mean[0] += (x - mean[0]) / count;
+        mean[1] += (y - mean[1]) / count;
+        mean[2] += (z - mean[2]) / count;
+
+        double magnitude = Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+        double delta = magnitude - magnitudeMean;
+        magnitudeMean += delta / count;
+        magnitudeM2 += delta * (magnitude - magnitudeMean);
+    }
+
+    /** Pass the current window to the listener, if it has any samples, and start a new window. */
+    void flush() {
+        if (count == 0) {
+            return;
+        }
+        listener.onWindow(windowStart, this);
+        count = 0;
+        for (int i = 0; i < 3; i++) {
+            mean[i] = 0d;
+        }
+        magnitudeMean = 0d;
+        magnitudeM2 = 0d;
+    }
+
+    long getWindowLength() {
+        return windowLength;
+    }
+
+    /** Number of samples in the current window. */
+    int getCount() {
+        return count;
+    }
+
+    /** Mean value of given axis (0, 1 or 2) in the current window. */
+    double getMean(int axis) {
+        return mean[axis];
+    }
+
+    /** Mean of the vector magnitude in the current window. */
+    double getMagnitudeMean() {
+        return magnitudeMean;
+    }
+
+    /** Population variance of the vector magnitude in the current window. */
+    double getMagnitudeVariance() {
+        return count > 0 ? magnitudeM2 / count : Double.NaN;
+    }
+
+    /** Listener for completed windows. */
+    interface WindowListener {
+        /**
+         * Process a completed window. The aggregator is reset after this call returns, so any
+         * statistics must be read inside this method.
+         * @param windowStart time of the first sample in the window.
+         * @param window aggregator containing the statistics of the window.
+         */
+        void onWindow(long windowStart, SensorWindowAggregator window);
+    }
+}
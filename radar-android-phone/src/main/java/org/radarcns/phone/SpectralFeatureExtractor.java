@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Computes frequency-domain features of the magnitude of a tri-axial signal, over fixed-size
+ * overlapping windows. Each window is detrended, multiplied by a Hann window and transformed with
+ * a radix-2 FFT. All buffers and tables are allocated up front, so processing a window does not
+ * allocate memory. The processing time of each window is tracked, to monitor the CPU cost. There
+ * is no data schema for these features yet, so the extractor is not attached to the sensor
+ * pipeline until there is. This class is not thread-safe.
+ */
+class SpectralFeatureExtractor implements SensorRingBuffer.SampleConsumer {
+    /** Lower edges of the frequency bands in Hz. The last band extends up to the Nyquist rate. */
+    static final double[] BAND_EDGES = {0d, 0.5d, 3d, 8d};
+
+    private final int windowSize;
+    private final int windowStep;
+    private final FeatureListener listener;
+
+    private final long[] sampleTimes;
+    private final double[] samples;
+    private int sampleIndex;
+    private int samplesUntilWindow;
+
+    private final double[] hann;
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final int[] bitReversal;
+    private final double[] re;
+    private final double[] im;
+    private final double[] power;
+    private final double[] bandEnergies = new double[BAND_EDGES.length];
+
+    private double samplingFrequency;
+    private double dominantFrequency;
+    private double spectralEntropy;
+
+    private long windowCount;
+    private long skippedCount;
+    private long totalProcessingNanos;
+    private long maxProcessingNanos;
+
+    /**
+     * Feature extractor with given window configuration.
+     * @param windowSize number of samples per window, a power of two of at least 8.
+     * @param windowStep number of samples between the start of consecutive windows, between 1 and
+     *                   the window size.
+     * @param listener listener to pass features of each window to.
+     */
+    SpectralFeatureExtractor(int windowSize, int windowStep, FeatureListener listener) {
+        if (windowSize < 8 || Integer.bitCount(windowSize) != 1) {
+            throw new IllegalArgumentException("Window size must be a power of two of at least 8");
+        }
+        if (windowStep <= 0 || windowStep > windowSize) {
+            throw new IllegalArgumentException("Window step must be between 1 and the window size");
+        }
+        this.windowSize = windowSize;
+        this.windowStep = windowStep;
+        this.listener = listener;
+
+        sampleTimes = new long[windowSize];
+        samples = new double[windowSize];
+        samplesUntilWindow = windowSize;
+
+        hann = new double[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            hann[i] = 0.5d - 0.5d * Math.cos(2 * Math.PI * i / (windowSize - 1));
+        }
+        cosTable = new double[windowSize / 2];
+        sinTable = new double[windowSize / 2];
+        for (int i = 0; i < windowSize / 2; i++) {
+            cosTable[i] = Math.cos(2 * Math.PI * i / windowSize);
+            sinTable[i] = Math.sin(2 * Math.PI * i / windowSize);
+        }
+        int bits = Integer.numberOfTrailingZeros(windowSize);
+        bitReversal = new int[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            bitReversal[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+        re = new double[windowSize];
+        im = new double[windowSize];
+        power = new double[windowSize / 2 + 1];
+    }
+
+    @Override
+    public void accept(long time, float x, float y, float z) {
+        sampleTimes[sampleIndex] = time;
+        samples[sampleIndex] = Math.sqrt((double) x * x + (double) y * y + (double) z * z);
+        sampleIndex = (sampleIndex + 1) % windowSize;
+        if (--samplesUntilWindow == 0) {
+            samplesUntilWindow = windowStep;
+            // sampleIndex now points at the oldest sample of the window
+            long firstTime = sampleTimes[sampleIndex];
+            long lastTime = sampleTimes[(sampleIndex + windowSize - 1) % windowSize];
+            if (lastTime <= firstTime) {
+                // batched samples with the same time give no sampling frequency
+                skippedCount++;
+                return;
+            }
+            long startTime = System.nanoTime();
+            computeFeatures(lastTime - firstTime);
+            long duration = System.nanoTime() - startTime;
+            windowCount++;
+            totalProcessingNanos += duration;
+            if (duration > maxProcessingNanos) {
+                maxProcessingNanos = duration;
+            }
+            listener.onFeatures(firstTime, this);
+        }
+    }
+
+    /** Discard all buffered samples, so the next window starts from scratch. */
+    void reset() {
+        sampleIndex = 0;
+        samplesUntilWindow = windowSize;
+    }
+
+    /**
+     * Compute the features of the current window.
+     * @param duration time between the first and last sample of the window, positive.
+     */
+    private void computeFeatures(long duration) {
+        double mean = 0d;
+        for (int i = 0; i < windowSize; i++) {
+            mean += samples[i];
+        }
+        mean /= windowSize;
+
+        // Copy the window in chronological and bit-reversed order, with the mean removed.
+        for (int i = 0; i < windowSize; i++) {
+            int target = bitReversal[i];
+            re[target] = (samples[(sampleIndex + i) % windowSize] - mean) * hann[i];
+            im[target] = 0d;
+        }
+        fft();
+
+        samplingFrequency = (windowSize - 1) * 1_000_000_000d / duration;
+        double binWidth = samplingFrequency / windowSize;
+
+        double totalPower = 0d;
+        double maxPower = -1d;
+        int maxBin = 0;
+        for (int i = 0; i < BAND_EDGES.length; i++) {
+            bandEnergies[i] = 0d;
+        }
+        int band = 0;
+        for (int k = 1; k < power.length; k++) {
+            power[k] = re[k] * re[k] + im[k] * im[k];
+            totalPower += power[k];
+            if (power[k] > maxPower) {
+                maxPower = power[k];
+                maxBin = k;
+            }
+            double frequency = k * binWidth;
+            while (band < BAND_EDGES.length - 1 && frequency >= BAND_EDGES[band + 1]) {
+                band++;
+            }
+            bandEnergies[band] += power[k];
+        }
+        dominantFrequency = maxBin * binWidth;
+
+        double entropy = 0d;
+        if (totalPower > 0d) {
+            for (int k = 1; k < power.length; k++) {
+                double p = power[k] / totalPower;
+                if (p > 0d) {
+                    entropy -= p * Math.log(p);
+                }
+            }
+            entropy /= Math.log(power.length - 1);
+        }
+        spectralEntropy = entropy;
+    }
+
+    /** Iterative in-place radix-2 FFT on bit-reversed input. */
+    private void fft() {
+        for (int size = 2; size <= windowSize; size <<= 1) {
+            int halfSize = size >> 1;
+            int tableStep = windowSize / size;
+            for (int start = 0; start < windowSize; start += size) {
+                for (int j = 0, t = 0; j < halfSize; j++, t += tableStep) {
+                    int even = start + j;
+                    int odd = even + halfSize;
+                    double oddRe = re[odd] * cosTable[t] + im[odd] * sinTable[t];
+                    double oddIm = im[odd] * cosTable[t] - re[odd] * sinTable[t];
+                    re[odd] = re[even] - oddRe;
+                    im[odd] = im[even] - oddIm;
+                    re[even] += oddRe;
+                    im[even] += oddIm;
+                }
+            }
+        }
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    int getWindowStep() {
+        return windowStep;
+    }
+
+    /** Sampling frequency of the last window in Hz, estimated from the sample times. */
+    double getSamplingFrequency() {
+        return samplingFrequency;
+    }
+
+    /** Frequency with the highest power in the last window, in Hz, excluding the DC component. */
+    double getDominantFrequency() {
+        return dominantFrequency;
+    }
+
+    /** Spectral power in the band starting at {@code BAND_EDGES[band]} in the last window. */
+    double getBandEnergy(int band) {
+        return bandEnergies[band];
+    }
+
+    /** Shannon entropy of the normalized power spectrum of the last window, scaled to [0, 1]. */
+    double getSpectralEntropy() {
+        return spectralEntropy;
+    }
+
+    /** Number of windows processed. */
+    long getWindowCount() {
+        return windowCount;
+    }
+
+    /** Number of windows skipped because their first and last sample have the same time. */
+    long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /** Mean CPU time spent on the features of a window, in nanoseconds. */
+    long getMeanProcessingNanos() {
+        return windowCount > 0 ? totalProcessingNanos / windowCount : 0L;
+    }
+
+    /** Maximum CPU time spent on the features of a window, in nanoseconds. */
+    long getMaxProcessingNanos() {
+        return maxProcessingNanos;
+    }
+
+    /** Listener for the features of each window. */
+    interface FeatureListener {
+        /**
+         * Process the features of a window. Read features from the extractor inside this method,
+         * they are overwritten by the next window.
+         * @param windowStart time of the first sample of the window.
+         * @param extractor extractor containing the window features.
+         */
+        void onFeatures(long windowStart, SpectralFeatureExtractor extractor);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+/**
+ * Detects whether the device stays at one place, from consecutive location fixes. The first
+ * accurate fix is the anchor of a stay point. Once fixes have stayed within a radius of the anchor
+ * for the dwell time, the device is stationary. The longer it stays, the larger the backoff
+ * factor for the location interval becomes: it doubles every time the stay doubles in length, up
+ * to a maximum. A fix that is certainly outside the radius, taking its accuracy into account,
+ * ends the stay. Inaccurate fixes within the radius neither confirm nor end a stay, so cheap
+ * network fixes can detect leaving but not staying. This class is not thread-safe.
+ */
+class StayPointDetector {
+    private static final double EARTH_RADIUS = 6_371_008.8; // meters
+
+    private final double radius;
+    private final long dwellTime;
+    private final int maximumFactor;
+    private boolean hasAnchor;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private long anchorTime;
+    private int factor = 1;
+
+    /**
+     * Detector with given stay point size.
+     * @param radius radius of a stay point in meters.
+     * @param dwellTime time that fixes should stay within the radius, before the device is
+     *                  stationary, in the unit of the fix times.
+     * @param maximumFactor maximum backoff factor.
+     */
+    StayPointDetector(double radius, long dwellTime, int maximumFactor) {
+        if (!(radius > 0d) || dwellTime <= 0L || maximumFactor < 1) {
+            throw new IllegalArgumentException("Stay point radius, dwell time and maximum factor must be positive");
+        }
+        this.radius = radius;
+        this.dwellTime = dwellTime;
+        this.maximumFactor = maximumFactor;
+    }
+
+    /**
+     * Process a location fix.
+     * @param time time of the fix, in the same unit as the dwell time.
+     * @param latitude latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param accuracy accuracy radius in meters, or NaN if unknown.
+     * @return backoff factor after this fix.
+     */
+    int onFix(long time, double latitude, double longitude, float accuracy) {
+        boolean isAccurate = accuracy <= radius;
+        if (hasAnchor) {
+            double margin = accuracy > 0f ? accuracy : 0d;
+            if (distance(anchorLatitude, anchorLongitude, latitude, longitude) - margin > radius) {
+                hasAnchor = false;
+                factor = 1;
+            } else if (isAccurate) {
+                long stay = time - anchorTime;
+                if (stay < dwellTime) {
+                    factor = 1;
+                } else if (stay / dwellTime >= maximumFactor) {
+                    factor = maximumFactor;
+                } else {
+                    factor = (int) Math.min(2L * Long.highestOneBit(stay / dwellTime), maximumFactor);
+                }
+            }
+        }
+        if (!hasAnchor && isAccurate) {
+            hasAnchor = true;
+            anchorLatitude = latitude;
+            anchorLongitude = longitude;
+            anchorTime = time;
+        }
+        return factor;
+    }
+
+    /** Whether the device has stayed within the radius for the dwell time. */
+    boolean isStationary() {
+        return factor > 1;
+    }
+
+    /** Current backoff factor, one if the device is not stationary. */
+    int getFactor() {
+        return factor;
+    }
+
+    /** Approximate distance in meters between two nearby coordinates in degrees. */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        // wrap around the antimeridian
+        if (deltaLambda > Math.PI) {
+            deltaLambda -= 2 * Math.PI;
+        } else if (deltaLambda < -Math.PI) {
+            deltaLambda += 2 * Math.PI;
+        }
+        double x = deltaLambda * Math.cos((phi1 + phi2) / 2);
+        double y = phi2 - phi1;
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
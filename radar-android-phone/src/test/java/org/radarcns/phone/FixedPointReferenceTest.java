@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FixedPointReferenceTest {
+    private static final int RANDOM_CASES = 100_000;
+
+    @Test
+    public void subtractFromRandomCoordinates() {
+        Random random = new Random(1L);
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            FixedPointReference reference = FixedPointReference.of((random.nextDouble() - 0.5) * 360);
+            assertMatches(reference, (random.nextDouble() - 0.5) * 360);
+        }
+    }
+
+    @Test
+    public void subtractFromRandomDoubles() {
+        Random random = new Random(2L);
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            FixedPointReference reference = FixedPointReference.of(randomDouble(random));
+            assertMatches(reference, randomDouble(random));
+        }
+    }
+
+    @Test
+    public void subtractFromNearbyValues() {
+        Random random = new Random(3L);
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            double base = (random.nextDouble() - 0.5) * 360;
+            FixedPointReference reference = FixedPointReference.of(base);
+            assertMatches(reference, base + random.nextGaussian() * 1e-3);
+            assertMatches(reference, Math.nextUp(base));
+            assertMatches(reference, base);
+        }
+    }
+
+    @Test
+    public void subtractFromWordBoundaries() {
+        // values of which the significand is shifted across the 64 bit word boundary
+        Random random = new Random(5L);
+        FixedPointReference reference = FixedPointReference.of(52.0907374);
+        for (int exponent = -16; exponent <= -8; exponent++) {
+            for (int i = 0; i < RANDOM_CASES / 10; i++) {
+                double value = Math.scalb(1d + random.nextDouble(), exponent);
+                assertMatches(reference, value);
+                assertMatches(reference, Math.round(value * 1e7) / 1e7);
+            }
+        }
+        // powers of two, which have a smaller gap to the next lower double
+        for (int exponent = -60; exponent <= 62; exponent++) {
+            assertMatches(reference, Math.scalb(1d, exponent));
+            assertMatches(reference, -Math.scalb(1d, exponent));
+        }
+    }
+
+    @Test
+    public void subtractFromExponentForm() {
+        double[] values = {1.0E-5, -1.0E-5, 1.0E10, -1.0E10, 1.234E-7, 9.87654321E15, 1.0E-3,
+                1.0E7, 1.0E18, 1.0E20, 4.9E-324, Double.MAX_VALUE, Double.MIN_NORMAL};
+        FixedPointReference[] references = {FixedPointReference.of(0d),
+                FixedPointReference.of(52.0907374), FixedPointReference.of(1.0E-5),
+                FixedPointReference.of(-4.9E10), FixedPointReference.of(123456789L, 18)};
+        for (FixedPointReference reference : references) {
+            for (double value : values) {
+                assertMatches(reference, value);
+            }
+        }
+    }
+
+    @Test
+    public void subtractFromOverflow() {
+        // the difference does not fit in a long
+        FixedPointReference large = FixedPointReference.of(Long.MAX_VALUE / 2, 0);
+        assertTrue(large.isFixedPoint());
+        assertMatches(large, -9.2E18);
+        assertMatches(large, 9.2E18);
+        // scaling to a common scale does not fit in a long
+        FixedPointReference precise = FixedPointReference.of(123456789012345678L, 18);
+        assertTrue(precise.isFixedPoint());
+        assertMatches(precise, 1.0E5);
+        assertMatches(precise, 123.456);
+    }
+
+    @Test
+    public void subtractFromFallback() {
+        FixedPointReference tooPrecise = FixedPointReference.parse("1.0000000000000000000000001");
+        assertFalse(tooPrecise.isFixedPoint());
+        assertMatches(tooPrecise, 1.0);
+        assertMatches(tooPrecise, 52.1);
+
+        FixedPointReference tooLarge = FixedPointReference.parse("123456789012345678901234");
+        assertFalse(tooLarge.isFixedPoint());
+        assertMatches(tooLarge, 1.2345678901234568E23);
+        assertMatches(tooLarge, -1.0);
+    }
+
+    @Test
+    public void toDoubleExact() {
+        assertEquals(0d, FixedPointReference.toDouble(0L, 5), 0d);
+        assertEquals(0.5, FixedPointReference.toDouble(5L, 1), 0d);
+        assertEquals(-12.345, FixedPointReference.toDouble(-12345L, 3), 0d);
+    }
+
+    @Test
+    public void toDoubleTiesToEven() {
+        long twoTo53 = 1L << 53;
+        // halfway between two doubles, round to the even one
+        assertToDouble(twoTo53 + 1L, 0, twoTo53);
+        assertToDouble(twoTo53 + 3L, 0, twoTo53 + 4L);
+        assertToDouble(-(twoTo53 + 1L), 0, -twoTo53);
+        assertToDouble(-(twoTo53 + 3L), 0, -(twoTo53 + 4L));
+        // just above halfway rounds up
+        assertToDouble((twoTo53 + 1L) * 10L + 1L, 1, twoTo53 + 2L);
+        // halfway, with a remainder of the decimal division
+        assertToDouble((twoTo53 + 1L) * 10L, 1, twoTo53);
+        assertToDouble((twoTo53 + 3L) * 10L, 1, twoTo53 + 4L);
+        assertToDouble(Long.MAX_VALUE, 0, 0x1p63);
+    }
+
+    @Test
+    public void toDoubleLargeMagnitudes() {
+        Random random = new Random(4L);
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            long unscaled = random.nextLong() >> random.nextInt(11);
+            if (unscaled == Long.MIN_VALUE) {
+                continue;
+            }
+            int scale = random.nextInt(19);
+            double expected = BigDecimal.valueOf(unscaled, scale).doubleValue();
+            assertEquals(unscaled + "E-" + scale, Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(FixedPointReference.toDouble(unscaled, scale)));
+        }
+    }
+
+    @Test
+    public void stringForm() {
+        assertEquals("52.0907374", FixedPointReference.parse("52.0907374").toString());
+        FixedPointReference reference = FixedPointReference.of(-4.25);
+        assertEquals(-425L, reference.getUnscaled());
+        assertEquals(2, reference.getScale());
+        assertEquals("-4.25", reference.toString());
+        assertEquals(reference.toString(),
+                FixedPointReference.of(reference.getUnscaled(), reference.getScale()).toString());
+    }
+
+    private static double randomDouble(Random random) {
+        double value;
+        do {
+            value = Double.longBitsToDouble(random.nextLong());
+        } while (Double.isNaN(value) || Double.isInfinite(value));
+        return value;
+    }
+
+    private static void assertToDouble(long unscaled, int scale, double expected) {
+        assertEquals(unscaled + "E-" + scale, expected,
+                FixedPointReference.toDouble(unscaled, scale), 0d);
+        assertEquals(unscaled + "E-" + scale, BigDecimal.valueOf(unscaled, scale).doubleValue(),
+                FixedPointReference.toDouble(unscaled, scale), 0d);
+    }
+
+    private static void assertMatches(FixedPointReference reference, double value) {
+        double expected = BigDecimal.valueOf(value)
+                .subtract(new BigDecimal(reference.toString()))
+                .doubleValue();
+        assertEquals(value + " - " + reference, Double.doubleToLongBits(expected),
+                Double.doubleToLongBits(reference.subtractFrom(value)));
+    }
+}
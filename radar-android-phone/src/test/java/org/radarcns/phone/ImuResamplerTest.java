@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImuResamplerTest {
+    private static final long MILLIS = 1_000_000L;
+    private static final long SECONDS = 1_000_000_000L;
+    // 50 Hz grid
+    private static final long INTERVAL = 20 * MILLIS;
+    private static final long MAX_LATENCY = 2 * SECONDS;
+    private static final long MAX_GAP = 2 * INTERVAL;
+
+    private final List<List<Long>> times = new ArrayList<>();
+    private final List<List<Float>> values = new ArrayList<>();
+
+    private ImuResampler resampler(long maxGap, int streams) {
+        SensorRingBuffer.SampleConsumer[] outputs = new SensorRingBuffer.SampleConsumer[streams];
+        for (int i = 0; i < streams; i++) {
+            List<Long> streamTimes = new ArrayList<>();
+            List<Float> streamValues = new ArrayList<>();
+            times.add(streamTimes);
+            values.add(streamValues);
+            outputs[i] = (time, x, y, z) -> {
+                streamTimes.add(time);
+                streamValues.add(x);
+            };
+        }
+        return new ImuResampler(INTERVAL, MAX_LATENCY, maxGap, 1024, outputs);
+    }
+
+    @Test
+    public void alignsStreams() {
+        ImuResampler resampler = resampler(MAX_GAP, 2);
+        // two 50 Hz streams with different phases; the value is the time in seconds
+        for (int i = 0; i < 500; i++) {
+            long t0 = i * INTERVAL + 3 * MILLIS;
+            long t1 = i * INTERVAL + 11 * MILLIS;
+            resampler.getInput(0).accept(t0, t0 / 1e9f, 0f, 0f);
+            resampler.getInput(1).accept(t1, t1 / 1e9f, 0f, 0f);
+        }
+        resampler.flush();
+        // grid times 20 ms up to 9.98 s
+        assertEquals(499, times.get(0).size());
+        assertEquals(times.get(0), times.get(1));
+        for (int i = 0; i < times.get(0).size(); i++) {
+            long time = (i + 1) * INTERVAL;
+            assertEquals(time, (long) times.get(0).get(i));
+            assertEquals(time / 1e9f, values.get(0).get(i), 1e-5f);
+            assertEquals(time / 1e9f, values.get(1).get(i), 1e-5f);
+        }
+        assertEquals(499L, resampler.getFrameCount());
+        assertEquals(0L, resampler.getIncompleteFrameCount());
+    }
+
+    @Test
+    public void parkedSamplesAreNotInterpolated() {
+        ImuResampler resampler = resampler(MAX_GAP, 3);
+        // only the accelerometer is sampled, at 1 Hz
+        for (int i = 0; i < 60; i++) {
+            resampler.getInput(0).accept(i * SECONDS + 7 * MILLIS, 1f, 0f, 0f);
+        }
+        resampler.flush();
+        for (List<Long> streamTimes : times) {
+            assertTrue(streamTimes.isEmpty());
+        }
+        assertEquals(0L, resampler.getFrameCount());
+    }
+
+    @Test
+    public void resumesAfterParking() {
+        ImuResampler resampler = resampler(MAX_GAP, 1);
+        // one second at 50 Hz, parked at 1 Hz for five seconds, then 50 Hz again
+        long time = 5 * MILLIS;
+        for (int i = 0; i < 50; i++, time += INTERVAL) {
+            resampler.getInput(0).accept(time, 1f, 0f, 0f);
+        }
+        for (int i = 0; i < 5; i++, time += SECONDS) {
+            resampler.getInput(0).accept(time, 2f, 0f, 0f);
+        }
+        for (int i = 0; i < 50; i++, time += INTERVAL) {
+            resampler.getInput(0).accept(time, 3f, 0f, 0f);
+        }
+        resampler.flush();
+        List<Long> streamTimes = times.get(0);
+        // grid times up to the first parked sample, and from the first sample after parking
+        assertEquals(99, streamTimes.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals((i + 1) * INTERVAL, (long) streamTimes.get(i));
+        }
+        for (int i = 0; i < 49; i++) {
+            assertEquals(1f, values.get(0).get(i), 1e-6f);
+            assertEquals(6 * SECONDS + (i + 1) * INTERVAL, (long) streamTimes.get(50 + i));
+            assertEquals(3f, values.get(0).get(50 + i), 1e-6f);
+        }
+    }
+
+    @Test
+    public void maxGapFollowsSamplingPeriod() {
+        ImuResampler resampler = resampler(MAX_GAP, 1);
+        assertEquals(MAX_GAP, resampler.getMaxGap());
+        // sampled at 5 Hz, for example in a low power profile
+        resampler.setMaxGap(2 * 200 * MILLIS);
+        for (int i = 0; i < 10; i++) {
+            resampler.getInput(0).accept(i * 200 * MILLIS + 1, i, 0f, 0f);
+        }
+        resampler.flush();
+        // grid times 20 ms up to 1.8 s
+        assertEquals(90, times.get(0).size());
+        for (int i = 0; i < times.get(0).size(); i++) {
+            long time = (i + 1) * INTERVAL;
+            assertEquals(time, (long) times.get(0).get(i));
+            assertEquals(time / (200f * MILLIS), values.get(0).get(i), 1e-4f);
+        }
+    }
+
+    @Test
+    public void laggingStreamIsLeftOut() {
+        ImuResampler resampler = resampler(MAX_GAP, 2);
+        // the second stream stops after one second
+        for (int i = 0; i < 250; i++) {
+            long time = i * INTERVAL + MILLIS;
+            resampler.getInput(0).accept(time, 1f, 0f, 0f);
+            if (i < 50) {
+                resampler.getInput(1).accept(time, 1f, 0f, 0f);
+            }
+        }
+        // grid times up to 4.98 s - maximum latency are emitted without the second stream
+        assertEquals(49, times.get(1).size());
+        assertTrue(times.get(0).size() >= 148);
+        assertEquals(times.get(0).size() - 49, resampler.getIncompleteFrameCount());
+    }
+}
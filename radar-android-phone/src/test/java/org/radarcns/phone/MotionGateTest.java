@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+    // times in milliseconds, acceleration in g
+    private static final long WINDOW = 10_000L;
+    private static final long STILL_DURATION = 60_000L;
+    private static final double THRESHOLD = 0.05;
+    private static final long SAMPLE_INTERVAL = 20L;
+
+    private MotionGate gate;
+    private List<Long> parks;
+    private List<Long> resumes;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        parks = new ArrayList<>();
+        resumes = new ArrayList<>();
+        random = new Random(1L);
+        gate = new MotionGate(WINDOW, THRESHOLD, STILL_DURATION, new MotionGate.Listener() {
+            @Override
+            public void onPark(long time) {
+                parks.add(time);
+            }
+
+            @Override
+            public void onResume(long time) {
+                resumes.add(time);
+            }
+        });
+    }
+
+    @Test
+    public void stationaryTraceParks() {
+        still(0L, 70_000L);
+        assertEquals(Collections.singletonList(STILL_DURATION), parks);
+        assertTrue(resumes.isEmpty());
+        assertTrue(gate.isParked());
+    }
+
+    @Test
+    public void walkingTraceNeverParks() {
+        walk(0L, 600_000L);
+        assertTrue(parks.isEmpty());
+        assertFalse(gate.isParked());
+    }
+
+    @Test
+    public void shortStillPeriodsDoNotPark() {
+        for (long t = 0L; t < 600_000L; t += 40_000L) {
+            still(t, t + 30_000L);
+            walk(t + 30_000L, t + 40_000L);
+        }
+        assertTrue(parks.isEmpty());
+    }
+
+    @Test
+    public void walkingAfterParkResumes() {
+        still(0L, 120_000L);
+        walk(120_000L, 140_000L);
+        assertEquals(Collections.singletonList(STILL_DURATION), parks);
+        assertEquals(Collections.singletonList(120_000L), resumes);
+        assertFalse(gate.isParked());
+
+        // parks again after being still for the full duration
+        still(140_000L, 210_000L);
+        assertEquals(Arrays.asList(STILL_DURATION, 200_000L), parks);
+    }
+
+    @Test
+    public void externalMotionResumes() {
+        still(0L, 65_000L);
+        assertTrue(gate.isParked());
+        gate.onMotion(65_000L);
+        assertFalse(gate.isParked());
+        assertEquals(Collections.singletonList(65_000L), resumes);
+
+        // the window that started before the motion is ignored
+        still(65_000L, 140_000L);
+        assertEquals(Arrays.asList(STILL_DURATION, 130_000L), parks);
+    }
+
+    @Test
+    public void parkedLowRateTraceResumes() {
+        still(0L, 65_000L);
+        assertTrue(gate.isParked());
+        // while parked, the accelerometer is sampled at 1 Hz
+        long t = 65_000L;
+        for (; t < 95_000L; t += 1000L) {
+            gate.accept(t, noise(), noise(), 1f + noise());
+        }
+        for (; t < 125_000L; t += 1000L) {
+            float magnitude = (float) (1.0 + (random.nextBoolean() ? 0.5 : -0.5));
+            gate.accept(t, 0f, 0f, magnitude);
+        }
+        assertEquals(1, resumes.size());
+        assertFalse(gate.isParked());
+    }
+
+    /** Phone lying on a table: gravity with a little sensor noise. */
+    private void still(long start, long end) {
+        for (long t = start; t < end; t += SAMPLE_INTERVAL) {
+            gate.accept(t, noise(), noise(), 1f + noise());
+        }
+    }
+
+    /** Phone in a pocket while walking: gravity with a 2 Hz vertical oscillation. */
+    private void walk(long start, long end) {
+        for (long t = start; t < end; t += SAMPLE_INTERVAL) {
+            double phase = 2 * Math.PI * 2 * t / 1000d;
+            gate.accept(t, 0.1f * (float) Math.cos(phase) + noise(), noise(),
+                    1f + 0.3f * (float) Math.sin(phase) + noise());
+        }
+    }
+
+    private float noise() {
+        return (float) (random.nextGaussian() * 0.005);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PhoneStateTest {
+    // all values up to this count are exact floats
+    private static final int MAX_WRITES = 1 << 23;
+    private static final long WRITE_DURATION_NANOS = 2_000_000_000L;
+    private static final int READERS = 3;
+
+    @Test
+    public void initialValues() {
+        PhoneState state = new PhoneState();
+        for (float value : state.getAcceleration()) {
+            assertTrue(Float.isNaN(value));
+        }
+        for (float value : state.getOrientation()) {
+            assertTrue(Float.isNaN(value));
+        }
+        state.setAcceleration(1f, 2f, 3f);
+        assertArrayEquals(new float[] {1f, 2f, 3f}, state.getAcceleration(), 0f);
+        state.setOrientation(1f, 0f, 0f, 0f);
+        assertArrayEquals(new float[] {1f, 0f, 0f, 0f}, state.getOrientation(), 0f);
+    }
+
+    /**
+     * A single writer publishes values with a fixed relation between the components, while
+     * several readers check that every copy they read keeps that relation and never goes back.
+     */
+    @Test(timeout = 60_000L)
+    public void concurrentReadersNeverSeeTornValues() throws InterruptedException {
+        PhoneState state = new PhoneState();
+        AtomicBoolean isWriting = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong readCount = new AtomicLong();
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Thread reader = new Thread(() -> {
+                float lastAcceleration = Float.NEGATIVE_INFINITY;
+                float lastOrientation = Float.NEGATIVE_INFINITY;
+                long reads = 0L;
+                while (isWriting.get() && failure.get() == null) {
+                    float[] a = state.getAcceleration();
+                    if (!Float.isNaN(a[0])) {
+                        if (a[1] != -a[0] || a[2] != 2f * a[0]) {
+                            failure.compareAndSet(null, "torn acceleration " + a[0] + ", " + a[1] + ", " + a[2]);
+                        } else if (a[0] < lastAcceleration) {
+                            failure.compareAndSet(null, "acceleration went back from " + lastAcceleration + " to " + a[0]);
+                        }
+                        lastAcceleration = a[0];
+                    }
+                    float[] q = state.getOrientation();
+                    if (!Float.isNaN(q[0])) {
+                        if (q[1] != q[0] + 1f || q[2] != q[0] + 2f || q[3] != q[0] + 3f) {
+                            failure.compareAndSet(null, "torn orientation " + q[0] + ", " + q[1] + ", " + q[2] + ", " + q[3]);
+                        } else if (q[0] < lastOrientation) {
+                            failure.compareAndSet(null, "orientation went back from " + lastOrientation + " to " + q[0]);
+                        }
+                        lastOrientation = q[0];
+                    }
+                    reads++;
+                }
+                readCount.addAndGet(reads);
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        AtomicLong writeCount = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            // run long enough that readers are scheduled in the middle of writes, also on a
+            // single core
+            long start = System.nanoTime();
+            int i = 0;
+            while (i < MAX_WRITES && failure.get() == null
+                    && System.nanoTime() - start < WRITE_DURATION_NANOS) {
+                float v = i++;
+                state.setAcceleration(v, -v, 2f * v);
+                state.setOrientation(v, v + 1f, v + 2f, v + 3f);
+            }
+            writeCount.set(i);
+            isWriting.set(false);
+        });
+        writer.start();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(readCount.get() > 0L);
+        float last = writeCount.get() - 1;
+        assertArrayEquals(new float[] {last, -last, 2f * last}, state.getAcceleration(), 0f);
+        assertEquals(last, state.getOrientation()[0], 0f);
+    }
+}
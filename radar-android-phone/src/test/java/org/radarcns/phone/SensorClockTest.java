@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SensorClockTest {
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+    private static final long BOOT_MILLIS = 1_500_000_000_000L;
+
+    private FakeClock clock;
+    private SensorClock sensorClock;
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        sensorClock = new SensorClock(clock, REFRESH_INTERVAL);
+    }
+
+    @Test
+    public void toEpochSeconds() {
+        clock.advance(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1_500_000_010d, sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(10)), 1e-6);
+        assertEquals(1, clock.readCount);
+        // a batched sample that was acquired earlier keeps its acquisition time
+        assertEquals(1_500_000_002.5, sensorClock.toEpochSeconds(TimeUnit.MILLISECONDS.toNanos(2500)), 1e-6);
+        assertEquals(1_500_000_012d, sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(12)), 1e-6);
+        // no clock reads within the refresh interval
+        assertEquals(1, clock.readCount);
+    }
+
+    @Test
+    public void wallClockChangeWithinInterval() {
+        clock.advance(TimeUnit.SECONDS.toNanos(10));
+        sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(10));
+        clock.wallOffsetMillis += 5_000L;
+        clock.advance(TimeUnit.SECONDS.toNanos(30));
+        // the old offset is used until the refresh interval passes
+        assertEquals(1_500_000_040d, sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(40)), 1e-6);
+    }
+
+    @Test
+    public void wallClockChangeAfterInterval() {
+        clock.advance(TimeUnit.SECONDS.toNanos(10));
+        sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(10));
+        clock.wallOffsetMillis += 5_000L;
+        clock.advance(TimeUnit.SECONDS.toNanos(60));
+        assertEquals(1_500_000_075d, sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(70)), 1e-6);
+        assertEquals(2, clock.readCount);
+    }
+
+    @Test
+    public void explicitRefresh() {
+        clock.advance(TimeUnit.SECONDS.toNanos(10));
+        sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(10));
+        clock.wallOffsetMillis -= 1_000L;
+        sensorClock.refresh();
+        assertEquals(1_500_000_009d, sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(10)), 1e-6);
+    }
+
+    @Test
+    public void sleepIsIncluded() {
+        clock.advance(TimeUnit.SECONDS.toNanos(10));
+        sensorClock.toEpochSeconds(TimeUnit.SECONDS.toNanos(10));
+        // elapsed realtime, and so sensor time, keeps counting while the device sleeps
+        clock.advance(TimeUnit.HOURS.toNanos(1));
+        long sensorTime = TimeUnit.SECONDS.toNanos(10) + TimeUnit.HOURS.toNanos(1);
+        assertEquals(1_500_003_610d, sensorClock.toEpochSeconds(sensorTime), 1e-6);
+    }
+
+    /** Clock with a wall clock that may be adjusted independently of the elapsed realtime. */
+    private static class FakeClock implements SensorClock.Clock {
+        private long elapsedNanos;
+        private long wallOffsetMillis = BOOT_MILLIS;
+        private int readCount;
+
+        void advance(long nanos) {
+            elapsedNanos += nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            readCount++;
+            return wallOffsetMillis + TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SensorDeadbandFilterTest {
+    // times in milliseconds
+    private static final long SAMPLE_INTERVAL = 200L;
+    private static final long DURATION = 600_000L;
+
+    private Random random;
+    private List<Long> passedTimes;
+    private List<float[]> passedValues;
+    private SensorRingBuffer.SampleConsumer recorder;
+
+    @Before
+    public void setUp() {
+        random = new Random(1L);
+        passedTimes = new ArrayList<>();
+        passedValues = new ArrayList<>();
+        recorder = (time, x, y, z) -> {
+            passedTimes.add(time);
+            passedValues.add(new float[] {x, y, z});
+        };
+    }
+
+    @Test
+    public void noisyConstantStream() {
+        SensorDeadbandFilter.Thresholds thresholds = new SensorDeadbandFilter.Thresholds(1f, 0.05f, 60_000);
+        SensorDeadbandFilter filter = filter(thresholds);
+        for (long t = 0L; t < DURATION; t += SAMPLE_INTERVAL) {
+            accept(filter, thresholds, t, 100f + gaussian(0.3f));
+        }
+        assertReduction("noisy constant", filter, 0.99);
+        // heartbeats show that the sensor is still active
+        assertEquals(DURATION / 60_000L, passedTimes.size());
+        assertMaxSilence(60_000L);
+    }
+
+    @Test
+    public void stepStream() {
+        SensorDeadbandFilter.Thresholds thresholds = new SensorDeadbandFilter.Thresholds(1f, 0.05f, 60_000);
+        SensorDeadbandFilter filter = filter(thresholds);
+        int steps = 0;
+        for (long t = 0L; t < DURATION; t += SAMPLE_INTERVAL) {
+            float level = 100f + 50f * ((t / 30_000L) % 4);
+            if (t % 30_000L == 0L) {
+                steps++;
+                int before = passedTimes.size();
+                accept(filter, thresholds, t, level + gaussian(0.3f));
+                // every step is passed immediately
+                assertEquals(before + 1, passedTimes.size());
+            } else {
+                accept(filter, thresholds, t, level + gaussian(0.3f));
+            }
+        }
+        assertEquals(steps, passedTimes.size());
+        assertReduction("steps", filter, 0.99);
+    }
+
+    @Test
+    public void driftStream() {
+        SensorDeadbandFilter.Thresholds thresholds = new SensorDeadbandFilter.Thresholds(1f, 0f, 0);
+        SensorDeadbandFilter filter = filter(thresholds);
+        float value = 0f;
+        for (long t = 0L; t < DURATION; t += SAMPLE_INTERVAL) {
+            value += 0.01f;
+            accept(filter, thresholds, t, value);
+        }
+        // a change of 1 takes 100 samples
+        double reduction = assertReduction("drift", filter, 0.989);
+        assertEquals(0.99, reduction, 0.001);
+    }
+
+    @Test
+    public void relativeThresholdStream() {
+        SensorDeadbandFilter.Thresholds thresholds = new SensorDeadbandFilter.Thresholds(1f, 0.01f, 0);
+        SensorDeadbandFilter filter = filter(thresholds);
+        for (long t = 0L; t < DURATION; t += SAMPLE_INTERVAL) {
+            // noise above the absolute threshold, but below 1% of the value
+            accept(filter, thresholds, t, 10_000f + gaussian(10f));
+        }
+        assertEquals(1, passedTimes.size());
+        assertReduction("relative", filter, 0.999);
+    }
+
+    @Test
+    public void motionStream() {
+        SensorDeadbandFilter.Thresholds thresholds = new SensorDeadbandFilter.Thresholds(0.05f, 0f, 0);
+        SensorDeadbandFilter filter = filter(thresholds);
+        for (long t = 0L; t < DURATION; t += SAMPLE_INTERVAL) {
+            // walking for the first half, then still
+            float amplitude = t < DURATION / 2 ? 3f : 0f;
+            accept(filter, thresholds, t, 9.81f + amplitude * (float) Math.sin(t / 100d) + gaussian(0.01f));
+        }
+        // nearly every walking sample passes, nearly no still sample does
+        double reduction = assertReduction("motion", filter, 0.45);
+        assertTrue(reduction < 0.55);
+    }
+
+    @Test
+    public void identicalValuesWithoutThresholds() {
+        SensorDeadbandFilter.Thresholds thresholds = new SensorDeadbandFilter.Thresholds(0f, 0f, 0);
+        SensorDeadbandFilter filter = filter(thresholds);
+        for (long t = 0L; t < DURATION; t += SAMPLE_INTERVAL) {
+            accept(filter, thresholds, t, (t / 10_000L) % 2);
+        }
+        assertEquals(DURATION / 10_000L, passedTimes.size());
+        assertReduction("identical", filter, 0.97);
+    }
+
+    private SensorDeadbandFilter filter(SensorDeadbandFilter.Thresholds thresholds) {
+        return new SensorDeadbandFilter(thresholds, thresholds.getMaxSilenceMillis(), recorder);
+    }
+
+    /**
+     * Pass a sample with value on the first axis to the filter, and check that a suppressed
+     * sample is within the deadband of the last passed sample.
+     */
+    private void accept(SensorDeadbandFilter filter, SensorDeadbandFilter.Thresholds thresholds,
+            long time, float value) {
+        int before = passedTimes.size();
+        filter.accept(time, value, 1f, -1f);
+        if (passedTimes.size() == before) {
+            float last = passedValues.get(before - 1)[0];
+            float change = Math.abs(value - last);
+            assertTrue("suppressed a significant change at " + time,
+                    change <= thresholds.getAbsolute()
+                            || change <= thresholds.getRelative() * Math.abs(last));
+        }
+    }
+
+    private void assertMaxSilence(long maxSilence) {
+        for (int i = 1; i < passedTimes.size(); i++) {
+            assertTrue(passedTimes.get(i) - passedTimes.get(i - 1) <= maxSilence);
+        }
+    }
+
+    /**
+     * Assert that at least a minimum fraction of the samples of a stream was suppressed.
+     * @return the fraction of samples that was suppressed.
+     */
+    private static double assertReduction(String stream, SensorDeadbandFilter filter, double minimum) {
+        double reduction = 1d - filter.getPassedCount() / (double) filter.getReceivedCount();
+        assertTrue(stream + " stream: passed " + filter.getPassedCount() + " of "
+                + filter.getReceivedCount() + " samples", reduction >= minimum);
+        return reduction;
+    }
+
+    private float gaussian(float deviation) {
+        return (float) random.nextGaussian() * deviation;
+    }
+}
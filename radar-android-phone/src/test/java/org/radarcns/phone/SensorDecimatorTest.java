@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SensorDecimatorTest {
+    private static final long MILLIS = 1_000_000L;
+    private static final long SECONDS = 1_000_000_000L;
+    // 10 Hz output
+    private static final long OUTPUT_INTERVAL = 100 * MILLIS;
+    private static final long MAX_GAP = 2 * OUTPUT_INTERVAL;
+
+    private final List<Long> times = new ArrayList<>();
+    private final List<Float> values = new ArrayList<>();
+    private final SensorRingBuffer.SampleConsumer recorder = (time, x, y, z) -> {
+        times.add(time);
+        values.add(x);
+    };
+
+    @Test
+    public void fixedInputRate() {
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_INTERVAL, MAX_GAP, false, recorder);
+        // 10 seconds of 50 Hz input
+        for (int i = 0; i < 500; i++) {
+            decimator.accept(i * 20 * MILLIS, 1f, 0f, 0f);
+        }
+        assertEquals(500L, decimator.getInputCount());
+        // 0 s to 9.9 s
+        assertEquals(100, times.size());
+        assertEquals(100L, decimator.getOutputCount());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(i * OUTPUT_INTERVAL, (long) times.get(i));
+            assertEquals(1f, values.get(i), 1e-6f);
+        }
+    }
+
+    @Test
+    public void jitteredInputRate() {
+        Random random = new Random(1L);
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_INTERVAL, MAX_GAP, false, recorder);
+        long start = 5 * SECONDS + 3 * MILLIS;
+        // 10 seconds of about 200 Hz input
+        for (int i = 0; i < 2000; i++) {
+            decimator.accept(start + i * 5 * MILLIS + random.nextInt(2 * (int) MILLIS), 1f, 0f, 0f);
+        }
+        // 5.1 s to 14.9 s
+        assertEquals(99, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(5 * SECONDS + (i + 1) * OUTPUT_INTERVAL, (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void slowerInputIsNotInterpolated() {
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_INTERVAL, MAX_GAP, false, recorder);
+        // parked at 1 Hz, with timestamps that are not aligned to the output interval
+        for (int i = 0; i < 60; i++) {
+            decimator.accept(i * SECONDS + 7 * MILLIS, 1f, 0f, 0f);
+        }
+        assertEquals(60L, decimator.getInputCount());
+        assertTrue(times.isEmpty());
+    }
+
+    @Test
+    public void restartAfterGap() {
+        SensorDecimator decimator = new SensorDecimator(OUTPUT_INTERVAL, MAX_GAP, false, recorder);
+        // one second at 50 Hz, a five second gap, and another second at 50 Hz
+        for (int i = 0; i < 50; i++) {
+            decimator.accept(i * 20 * MILLIS, 1f, 0f, 0f);
+        }
+        for (int i = 0; i < 50; i++) {
+            decimator.accept(6 * SECONDS + i * 20 * MILLIS, 2f, 0f, 0f);
+        }
+        assertEquals(20, times.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * OUTPUT_INTERVAL, (long) times.get(i));
+            assertEquals(1f, values.get(i), 1e-6f);
+            assertEquals(6 * SECONDS + i * OUTPUT_INTERVAL, (long) times.get(i + 10));
+            assertEquals(2f, values.get(i + 10), 1e-6f);
+        }
+    }
+
+    @Test
+    public void holdOnChangeValues() {
+        long maxGap = 600 * SECONDS;
+        SensorDecimator decimator = new SensorDecimator(SECONDS, maxGap, true, recorder);
+        decimator.accept(0L, 10f, 0f, 0f);
+        decimator.accept(3500 * MILLIS, 100f, 0f, 0f);
+        decimator.accept(7200 * MILLIS, 100f, 0f, 0f);
+        // 0 s to 7 s
+        assertEquals(8, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(i * SECONDS, (long) times.get(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(10f, values.get(i), 1e-6f);
+        }
+        for (int i = 4; i < 8; i++) {
+            assertEquals(100f, values.get(i), 1f);
+        }
+
+        // the value is not held for longer than the maximum gap
+        decimator.accept(7200 * MILLIS + maxGap + SECONDS, 50f, 0f, 0f);
+        assertEquals(8, times.size());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorSampleQueueTest {
+    private static final int CAPACITY = 64;
+    private static final int SAMPLES = 100_000;
+    private static final long CONSUMER_PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @Test
+    public void dropOldestWhenFull() {
+        SensorSampleQueue queue = new SensorSampleQueue(CAPACITY,
+                SensorSampleQueue.OverflowPolicy.DROP_OLDEST, 0L);
+        for (int i = 0; i < CAPACITY + 10; i++) {
+            assertTrue(queue.offer(i, i, 0f, 0f));
+        }
+        assertEquals(10L, queue.getDroppedCount());
+        List<Long> times = drainAll(queue);
+        assertEquals(CAPACITY, times.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i + 10L, (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void dropNewestWhenFull() {
+        SensorSampleQueue queue = new SensorSampleQueue(CAPACITY,
+                SensorSampleQueue.OverflowPolicy.DROP_NEWEST, 0L);
+        for (int i = 0; i < CAPACITY + 10; i++) {
+            assertEquals(i < CAPACITY, queue.offer(i, i, 0f, 0f));
+        }
+        assertEquals(10L, queue.getDroppedCount());
+        List<Long> times = drainAll(queue);
+        assertEquals(CAPACITY, times.size());
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i, (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void blockTimesOut() {
+        SensorSampleQueue queue = new SensorSampleQueue(CAPACITY,
+                SensorSampleQueue.OverflowPolicy.BLOCK, TimeUnit.MILLISECONDS.toNanos(1));
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(queue.offer(i, i, 0f, 0f));
+        }
+        assertFalse(queue.offer(CAPACITY, CAPACITY, 0f, 0f));
+        assertEquals(1L, queue.getBlockedCount());
+        assertEquals(1L, queue.getDroppedCount());
+        assertEquals(CAPACITY, drainAll(queue).size());
+    }
+
+    @Test
+    public void dropOldestStress() throws InterruptedException {
+        List<Long> times = stress(SensorSampleQueue.OverflowPolicy.DROP_OLDEST, 0L);
+        // the newest sample is never dropped
+        assertEquals(SAMPLES - 1L, (long) times.get(times.size() - 1));
+    }
+
+    @Test
+    public void dropNewestStress() throws InterruptedException {
+        List<Long> times = stress(SensorSampleQueue.OverflowPolicy.DROP_NEWEST, 0L);
+        // the queue starts empty, so the first samples are never dropped
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(i, (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void blockStress() throws InterruptedException {
+        List<Long> times = stress(SensorSampleQueue.OverflowPolicy.BLOCK, TimeUnit.SECONDS.toNanos(10));
+        // nothing is dropped if the consumer keeps up within the timeout
+        assertEquals(SAMPLES, times.size());
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(i, (long) times.get(i));
+        }
+    }
+
+    /**
+     * Offer samples from a producer thread while a slower consumer thread drains them. The
+     * values of each sample are derived from its time, so torn samples are detected.
+     * @return times of the samples that were received.
+     */
+    private static List<Long> stress(SensorSampleQueue.OverflowPolicy policy, long blockTimeout)
+            throws InterruptedException {
+        SensorSampleQueue queue = new SensorSampleQueue(CAPACITY, policy, blockTimeout);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] offered = new long[1];
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < SAMPLES; i++) {
+                if (queue.offer(i, i, -i, 2 * i)) {
+                    offered[0]++;
+                }
+            }
+        });
+
+        List<Long> times = new ArrayList<>(SAMPLES);
+        SensorRingBuffer.SampleConsumer consumer = (time, x, y, z) -> {
+            if (x != (float) time || y != (float) -time || z != (float) (2 * time)) {
+                failure.compareAndSet(null, new AssertionError("Torn sample at " + time));
+            }
+            times.add(time);
+        };
+
+        producer.start();
+        while (producer.isAlive()) {
+            queue.drain(consumer);
+            LockSupport.parkNanos(CONSUMER_PAUSE_NANOS);
+        }
+        producer.join();
+        queue.drain(consumer);
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        for (int i = 1; i < times.size(); i++) {
+            assertTrue("samples out of order at " + times.get(i),
+                    times.get(i) > times.get(i - 1));
+        }
+        assertEquals(SAMPLES, times.size() + queue.getDroppedCount());
+        // the consumer is slower than the producer, so the queue overflows
+        if (policy == SensorSampleQueue.OverflowPolicy.BLOCK) {
+            assertTrue(queue.getBlockedCount() > 0);
+        } else {
+            assertTrue(queue.getDroppedCount() > 0);
+        }
+        if (policy == SensorSampleQueue.OverflowPolicy.DROP_OLDEST) {
+            // the producer always adds the new sample
+            assertEquals(SAMPLES, offered[0]);
+        } else {
+            assertEquals(times.size(), offered[0]);
+        }
+        assertEquals(0, queue.size());
+        return times;
+    }
+
+    private static List<Long> drainAll(SensorSampleQueue queue) {
+        List<Long> times = new ArrayList<>();
+        queue.drain((time, x, y, z) -> {
+            assertEquals((float) time, x, 0f);
+            times.add(time);
+        });
+        return times;
+    }
+}
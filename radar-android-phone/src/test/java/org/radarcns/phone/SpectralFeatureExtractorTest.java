@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.phone;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpectralFeatureExtractorTest {
+    // 50 Hz input, in nanoseconds
+    private static final long SAMPLE_INTERVAL = 20_000_000L;
+    private static final int WINDOW_SIZE = 256;
+    private static final int WINDOW_STEP = 128;
+
+    private final List<Long> windowStarts = new ArrayList<>();
+    private final List<double[]> features = new ArrayList<>();
+    private final SpectralFeatureExtractor.FeatureListener recorder = (windowStart, extractor) -> {
+        windowStarts.add(windowStart);
+        features.add(new double[] {extractor.getDominantFrequency(),
+                extractor.getSpectralEntropy(), extractor.getBandEnergy(0),
+                extractor.getBandEnergy(1), extractor.getBandEnergy(2),
+                extractor.getBandEnergy(3), extractor.getSamplingFrequency()});
+    };
+
+    @Test
+    public void walkingFrequency() {
+        SpectralFeatureExtractor extractor = new SpectralFeatureExtractor(WINDOW_SIZE, WINDOW_STEP, recorder);
+        for (int i = 0; i < 10 * WINDOW_SIZE; i++) {
+            double phase = 2 * Math.PI * 2d * i * SAMPLE_INTERVAL / 1e9;
+            extractor.accept(i * SAMPLE_INTERVAL, 0f, 0f, 1f + 0.3f * (float) Math.sin(phase));
+        }
+        assertEquals(19, windowStarts.size());
+        double binWidth = 50d / WINDOW_SIZE;
+        for (int i = 0; i < features.size(); i++) {
+            double[] f = features.get(i);
+            assertEquals(i * WINDOW_STEP * SAMPLE_INTERVAL, (long) windowStarts.get(i));
+            assertEquals(50d, f[6], 1e-9);
+            assertEquals(2d, f[0], binWidth);
+            // nearly all energy is in the 0.5 - 3 Hz band
+            assertTrue(f[3] > 0.95 * (f[2] + f[3] + f[4] + f[5]));
+            assertTrue(f[1] < 0.3);
+        }
+    }
+
+    @Test
+    public void noiseHasHighEntropy() {
+        Random random = new Random(1L);
+        SpectralFeatureExtractor extractor = new SpectralFeatureExtractor(WINDOW_SIZE, WINDOW_STEP, recorder);
+        for (int i = 0; i < 10 * WINDOW_SIZE; i++) {
+            extractor.accept(i * SAMPLE_INTERVAL, 0f, 0f, 1f + 0.1f * (float) random.nextGaussian());
+        }
+        for (double[] f : features) {
+            assertTrue(f[1] > 0.8);
+        }
+    }
+
+    @Test
+    public void sameTimestampsSkipWindow() {
+        SpectralFeatureExtractor extractor = new SpectralFeatureExtractor(8, 8, recorder);
+        for (int i = 0; i < 8; i++) {
+            extractor.accept(1_000_000_000L, 0f, 0f, i);
+        }
+        assertTrue(features.isEmpty());
+        assertEquals(1L, extractor.getSkippedCount());
+        assertEquals(0L, extractor.getWindowCount());
+
+        // the next window has increasing times again
+        for (int i = 1; i <= 8; i++) {
+            extractor.accept(1_000_000_000L + i * SAMPLE_INTERVAL, 0f, 0f, i);
+        }
+        assertEquals(1, features.size());
+        for (double feature : features.get(0)) {
+            assertTrue(!Double.isNaN(feature) && !Double.isInfinite(feature));
+        }
+    }
+
+    @Test
+    public void continuousInputCost() {
+        SpectralFeatureExtractor extractor = new SpectralFeatureExtractor(WINDOW_SIZE, WINDOW_STEP,
+                (windowStart, e) -> { });
+        Random random = new Random(2L);
+        // one hour of 50 Hz input
+        int samples = 50 * 3600;
+        for (int i = 0; i < samples; i++) {
+            extractor.accept(i * SAMPLE_INTERVAL, (float) random.nextGaussian(),
+                    (float) random.nextGaussian(), 1f + (float) random.nextGaussian());
+        }
+        assertEquals((samples - WINDOW_SIZE) / WINDOW_STEP + 1, extractor.getWindowCount());
+        // a window must take far less CPU than the 2.56 s of input between windows
+        long stepNanos = WINDOW_STEP * SAMPLE_INTERVAL;
+        assertTrue("mean " + TimeUnit.NANOSECONDS.toMicros(extractor.getMeanProcessingNanos()) + " us",
+                extractor.getMeanProcessingNanos() < stepNanos / 1000);
+    }
+}